@@ -0,0 +1,159 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.client.GitLabCatalog;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import static cd.go.authorization.gitlab.GitLabPlugin.LOG;
+import static cd.go.authorization.gitlab.utils.Util.daemonThreadFactory;
+import static cd.go.authorization.gitlab.utils.Util.isBlank;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.text.MessageFormat.format;
+
+/**
+ * Snapshot of the {@link RolesCache} and of the members indexed by the {@link GitLabCatalog} on disk, so that a
+ * restarted GoCD server does not resolve the roles of every user from GitLab at once.
+ * <p>
+ * Restored entries are used, but treated as stale: roles are refreshed in the background the first time they are
+ * needed, and so are indexed members. The snapshot is written periodically and when the server shuts down. It is
+ * enabled by setting the {@value #DIRECTORY_PROPERTY} system property to the directory to keep it in.
+ * <p>
+ * The file starts with a magic number, the format version, the payload length and a CRC32 checksum of the payload.
+ * Snapshots of another format version, or which do not match their checksum, are discarded.
+ */
+public class CacheSnapshot {
+    public static final String DIRECTORY_PROPERTY = "gitlab.authorization.snapshot.dir";
+    static final String FILE_NAME = "gitlab-authorization-caches.bin";
+    static final int MAGIC = 0x474c4143;
+    static final int VERSION = 1;
+    static final long SAVE_INTERVAL_IN_SECONDS = 60;
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    private final Path file;
+    private final RolesCache rolesCache;
+    private final GitLabCatalog gitLabCatalog;
+
+    CacheSnapshot(Path file, RolesCache rolesCache, GitLabCatalog gitLabCatalog) {
+        this.file = file;
+        this.rolesCache = rolesCache;
+        this.gitLabCatalog = gitLabCatalog;
+    }
+
+    /**
+     * Restores the snapshot from the directory set in the {@value #DIRECTORY_PROPERTY} system property, and keeps it up
+     * to date from then on. Does nothing when the property is not set.
+     */
+    public static void start() {
+        final String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (isBlank(directory) || !STARTED.compareAndSet(false, true)) {
+            return;
+        }
+
+        final CacheSnapshot snapshot = new CacheSnapshot(Paths.get(directory, FILE_NAME), RolesCache.instance(), GitLabCatalog.instance());
+        snapshot.restore();
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("gitlab-cache-snapshot"));
+        executor.scheduleWithFixedDelay(snapshot::saveQuietly, SAVE_INTERVAL_IN_SECONDS, SAVE_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(snapshot::saveQuietly, "gitlab-cache-snapshot-on-shutdown"));
+    }
+
+    /**
+     * @return true when a snapshot was restored, false when there is none or it was discarded.
+     */
+    boolean restore() {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.info(format("Discarding cache snapshot `{0}` written by another version of the plugin.", file));
+                return false;
+            }
+
+            final int length = in.readInt();
+            final long checksum = in.readLong();
+            if (length < 0 || length > Files.size(file)) {
+                LOG.warn(format("Discarding truncated cache snapshot `{0}`.", file));
+                return false;
+            }
+            final byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (checksum(payload) != checksum) {
+                LOG.warn(format("Discarding corrupt cache snapshot `{0}`.", file));
+                return false;
+            }
+
+            final DataInputStream payloadIn = new DataInputStream(new ByteArrayInputStream(payload));
+            final int roles = rolesCache.readFrom(payloadIn);
+            final int members = gitLabCatalog.readMembersFrom(payloadIn);
+            LOG.info(format("Restored {0} cached role assignment(s) and the members of {1} group(s) and project(s) from `{2}`.", roles, members, file));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn(format("Discarding unreadable cache snapshot `{0}`: {1}", file, e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first, which then replaces the previous snapshot.
+     */
+    void save() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream payloadOut = new DataOutputStream(bytes)) {
+            rolesCache.writeTo(payloadOut);
+            gitLabCatalog.writeMembersTo(payloadOut);
+        }
+        final byte[] payload = bytes.toByteArray();
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        final Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(payload.length);
+            out.writeLong(checksum(payload));
+            out.write(payload);
+        }
+        Files.move(temporaryFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (Exception e) {
+            LOG.warn(format("Failed to write cache snapshot `{0}`: {1}", file, e.getMessage()));
+        }
+    }
+
+    private static long checksum(byte[] payload) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        return crc32.getValue();
+    }
+}
@@ -16,32 +16,70 @@
 
 package cd.go.authorization.gitlab;
 
+import cd.go.authorization.gitlab.client.GitLabCatalog;
 import cd.go.authorization.gitlab.client.GitLabClient;
-import cd.go.authorization.gitlab.client.models.GitLabGroup;
-import cd.go.authorization.gitlab.client.models.GitLabProject;
+import cd.go.authorization.gitlab.client.ProjectsFilter;
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabGroupSummary;
+import cd.go.authorization.gitlab.client.models.GitLabMemberships;
+import cd.go.authorization.gitlab.client.models.GitLabProjectSummary;
 import cd.go.authorization.gitlab.client.models.GitLabUser;
 import cd.go.authorization.gitlab.models.AuthConfig;
+import cd.go.authorization.gitlab.models.CompiledRoleConfiguration;
+import cd.go.authorization.gitlab.models.GitLabConfiguration;
 import cd.go.authorization.gitlab.models.GitLabRole;
+import cd.go.authorization.gitlab.models.GitLabRoleConfiguration;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static cd.go.authorization.gitlab.GitLabPlugin.LOG;
+import static cd.go.authorization.gitlab.client.RateLimitScheduler.Priority.BACKGROUND;
+import static cd.go.authorization.gitlab.client.RateLimitScheduler.withPriority;
+import static cd.go.authorization.gitlab.utils.Util.daemonThreadFactory;
+import static java.text.MessageFormat.format;
 import static java.util.stream.Collectors.toList;
 
 public class GitLabAuthorizer {
+    static final int MAX_REFRESH_THREADS = 2;
+    static final int MAX_QUEUED_REFRESHES = 100;
+    private static final ThreadPoolExecutor REFRESH_EXECUTOR = refreshExecutor();
+
     private final GroupMembershipChecker groupMembershipChecker;
     private final ProjectMembershipChecker projectMembershipChecker;
+    private final RolesCache rolesCache;
+    private final Executor refreshExecutor;
+    private final GitLabCatalog gitLabCatalog;
 
     public GitLabAuthorizer() {
         this(new GroupMembershipChecker(), new ProjectMembershipChecker());
     }
 
     GitLabAuthorizer(GroupMembershipChecker groupMembershipChecker, ProjectMembershipChecker projectMembershipChecker) {
+        this(groupMembershipChecker, projectMembershipChecker, RolesCache.instance(), REFRESH_EXECUTOR, GitLabCatalog.instance());
+    }
+
+    GitLabAuthorizer(GroupMembershipChecker groupMembershipChecker, ProjectMembershipChecker projectMembershipChecker, RolesCache rolesCache, Executor refreshExecutor, GitLabCatalog gitLabCatalog) {
         this.groupMembershipChecker = groupMembershipChecker;
         this.projectMembershipChecker = projectMembershipChecker;
+        this.rolesCache = rolesCache;
+        this.refreshExecutor = refreshExecutor;
+        this.gitLabCatalog = gitLabCatalog;
     }
 
     public List<String> authorize(GitLabUser gitLabUser, AuthConfig authConfig, List<GitLabRole> roles) throws IOException {
@@ -49,6 +87,85 @@ public class GitLabAuthorizer {
             return Collections.emptyList();
         }
 
+        final long ttlInSeconds = authConfig.gitLabConfiguration().rolesCacheTTLInSeconds();
+        if (ttlInSeconds <= 0) {
+            return resolveRoles(gitLabUser, authConfig, roles);
+        }
+
+        final String authConfigFingerprint = RolesCache.fingerprint(authConfig);
+        final Map<GitLabRole, String> keys = new LinkedHashMap<>();
+        final Set<String> grantedRoles = new HashSet<>();
+        final List<GitLabRole> uncachedRoles = new ArrayList<>();
+        final List<GitLabRole> staleRoles = new ArrayList<>();
+        for (GitLabRole role : roles) {
+            final String key = RolesCache.key(authConfigFingerprint, gitLabUser.getId(), role);
+            keys.put(role, key);
+            final RolesCache.Decision decision = rolesCache.get(authConfig.getId(), key);
+            if (decision == null) {
+                uncachedRoles.add(role);
+                continue;
+            }
+            if (decision.isGranted()) {
+                grantedRoles.add(role.name());
+            }
+            if (decision.isStale() && rolesCache.startRefresh(authConfig.getId(), key)) {
+                staleRoles.add(role);
+            }
+        }
+
+        if (!uncachedRoles.isEmpty()) {
+            grantedRoles.addAll(resolveAndCacheRoles(gitLabUser, authConfig, uncachedRoles, keys));
+        }
+        if (!staleRoles.isEmpty()) {
+            refreshInBackground(gitLabUser, authConfig, staleRoles, keys);
+        }
+        LOG.debug(format("Resolved {0} of {1} role(s) of `{2}` from GitLab. Roles cache hits: {3}, misses: {4}.",
+                uncachedRoles.size(), roles.size(), gitLabUser.getUsername(), rolesCache.hits(), rolesCache.misses()));
+
+        return roles.stream().map(GitLabRole::name).filter(grantedRoles::contains).distinct().collect(toList());
+    }
+
+    private List<String> resolveAndCacheRoles(GitLabUser gitLabUser, AuthConfig authConfig, List<GitLabRole> roles, Map<GitLabRole, String> keys) throws IOException {
+        final GitLabConfiguration gitLabConfiguration = authConfig.gitLabConfiguration();
+        final List<String> resolvedRoles = resolveRoles(gitLabUser, authConfig, roles);
+        for (GitLabRole role : roles) {
+            rolesCache.put(authConfig.getId(), keys.get(role), resolvedRoles.contains(role.name()),
+                    Duration.ofSeconds(gitLabConfiguration.rolesCacheRefreshAfterSeconds()),
+                    Duration.ofSeconds(gitLabConfiguration.rolesCacheTTLInSeconds()),
+                    gitLabConfiguration.rolesCacheMaxSize());
+        }
+        return resolvedRoles;
+    }
+
+    /**
+     * Resolves stale roles again without holding up the current request. Refreshes run on a small bounded pool; when
+     * it is saturated the refresh is skipped, and retried by a later request while the cached roles have not expired.
+     */
+    private void refreshInBackground(GitLabUser gitLabUser, AuthConfig authConfig, List<GitLabRole> staleRoles, Map<GitLabRole, String> keys) {
+        final Runnable releaseClaims = () -> staleRoles.forEach(role -> rolesCache.refreshFailed(authConfig.getId(), keys.get(role)));
+        try {
+            refreshExecutor.execute(withPriority(BACKGROUND, () -> {
+                try {
+                    resolveAndCacheRoles(gitLabUser, authConfig, staleRoles, keys);
+                } catch (Exception e) {
+                    LOG.warn(format("Failed to refresh cached roles of `{0}`: {1}", gitLabUser.getUsername(), e.getMessage()));
+                    releaseClaims.run();
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            LOG.debug(format("Skipped refreshing cached roles of `{0}`, too many refreshes pending.", gitLabUser.getUsername()));
+            releaseClaims.run();
+        }
+    }
+
+    private static ThreadPoolExecutor refreshExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_REFRESH_THREADS, MAX_REFRESH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_REFRESHES), daemonThreadFactory("gitlab-roles-refresh"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private List<String> resolveRoles(GitLabUser gitLabUser, AuthConfig authConfig, List<GitLabRole> roles) throws IOException {
         final List<String> assignedRoles = checkIfUserIsWhiteListed(gitLabUser.getUsername(), roles);
 
         final List<GitLabRole> remainingRoles = roles.stream().filter(role -> !assignedRoles.contains(role.name())).collect(toList());
@@ -58,27 +175,157 @@ public class GitLabAuthorizer {
             return assignedRoles;
         }
 
+        if (authConfig.gitLabConfiguration().useGraphQL()) {
+            final Set<String> referencedGroups = referenced(remainingRoles, GitLabRoleConfiguration::groups);
+            final Set<String> referencedProjects = referenced(remainingRoles, GitLabRoleConfiguration::projects);
+            if (allFullPaths(referencedGroups) && allFullPaths(referencedProjects)) {
+                assignedRoles.addAll(authorizeWithGraphQL(gitLabUser, authConfig.gitLabConfiguration(), remainingRoles, referencedGroups, referencedProjects));
+                return assignedRoles;
+            }
+            LOG.debug("Role configurations refer to groups or projects by name, which GraphQL cannot look up. Using the REST api instead.");
+        }
+
         final GitLabClient gitLabClient = authConfig.gitLabConfiguration().gitLabClient();
         String personalAccessToken = authConfig.gitLabConfiguration().personalAccessToken();
-        final List<GitLabGroup> groupsFromGitLab = gitLabClient.groups(personalAccessToken);
-        final List<GitLabProject> projectsFromGitLab = gitLabClient.projects(personalAccessToken);
+        final List<GitLabGroupSummary> groupsFromGitLab = groups(authConfig.gitLabConfiguration(), gitLabClient, remainingRoles);
+        final List<GitLabProjectSummary> projectsFromGitLab = projects(authConfig.gitLabConfiguration(), gitLabClient, remainingRoles);
+
+        final GroupAccessLevels groupAccessLevels = groupAccessLevelsFor(gitLabUser, personalAccessToken, gitLabClient, remainingRoles);
+        final MemberIndex memberIndex = memberIndexFor(authConfig.gitLabConfiguration(), gitLabClient);
 
-        for (GitLabRole role : remainingRoles) {
-            final Map<String, List<String>> groupsFromRole = role.roleConfiguration().groups();
+        final RoleIndex roleIndex = RoleIndex.of(remainingRoles);
+        if (memberIndex.isEnabled()) {
+            memberIndex.preload(groupsFromGitLab, projectsFromGitLab, roleIndex);
+        }
+        final BitSet grantedRoles = new BitSet(remainingRoles.size());
+        final MembershipLookups lookups = new MembershipLookups(gitLabClient, personalAccessToken, memberIndex,
+                authConfig.gitLabConfiguration().gitLabBaseURL(), authConfig.gitLabConfiguration().concurrentMemberLookups());
+        groupMembershipChecker.grantRoles(gitLabUser, groupsFromGitLab, roleIndex, grantedRoles, groupAccessLevels, lookups);
+        if (grantedRoles.cardinality() < remainingRoles.size()) {
+            projectMembershipChecker.grantRoles(gitLabUser, projectsFromGitLab, roleIndex, grantedRoles, lookups);
+        }
+        LOG.debug(format("Made {0} member api call(s) to authorize `{1}`, saved {2} repeated call(s) and shared {3} call(s) with concurrent identical calls. Since start: {4} saved, {5} shared.",
+                lookups.calls(), gitLabUser.getUsername(), lookups.savedCalls(), gitLabClient.coalescedCalls(), MembershipLookups.totalSavedCalls(), GitLabClient.totalCoalescedCalls()));
+        for (int role = grantedRoles.nextSetBit(0); role >= 0; role = grantedRoles.nextSetBit(role + 1)) {
+            assignedRoles.add(remainingRoles.get(role).name());
+        }
 
-            if (groupMembershipChecker.memberOfAtLeastOneGroup(gitLabUser, personalAccessToken, gitLabClient, groupsFromGitLab, groupsFromRole)) {
-                assignedRoles.add(role.name());
+        return assignedRoles;
+    }
+
+    private List<String> authorizeWithGraphQL(GitLabUser gitLabUser, GitLabConfiguration gitLabConfiguration, List<GitLabRole> roles, Set<String> referencedGroups, Set<String> referencedProjects) throws IOException {
+        final GitLabMemberships memberships = gitLabConfiguration.gitLabGraphQLClient()
+                .memberships(gitLabConfiguration.personalAccessToken(), gitLabUser, referencedGroups, referencedProjects);
+
+        final RoleIndex roleIndex = RoleIndex.of(roles);
+        final BitSet grantedRoles = new BitSet(roles.size());
+        memberships.groups().forEach((fullPath, accessLevel) -> grantRoles(gitLabUser, "group", fullPath, accessLevel, roleIndex.groupRequirements(fullPath, null), grantedRoles));
+        memberships.projects().forEach((fullPath, accessLevel) -> grantRoles(gitLabUser, "project", fullPath, accessLevel, roleIndex.projectRequirements(fullPath, null), grantedRoles));
+
+        final List<String> assignedRoles = new ArrayList<>();
+        for (int role = grantedRoles.nextSetBit(0); role >= 0; role = grantedRoles.nextSetBit(role + 1)) {
+            assignedRoles.add(roles.get(role).name());
+        }
+        return assignedRoles;
+    }
+
+    /**
+     * Same rules as the {@link GroupMembershipChecker} and {@link ProjectMembershipChecker}: an entry without access
+     * levels matches when the group or project is visible to the access token, otherwise the user needs a direct
+     * membership with one of the access levels.
+     */
+    private void grantRoles(GitLabUser gitLabUser, String type, String fullPath, AccessLevel accessLevel, List<RoleIndex.Requirement> requirements, BitSet grantedRoles) {
+        for (RoleIndex.Requirement requirement : requirements) {
+            if (grantedRoles.get(requirement.role()) || !requirement.isSatisfiedBy(accessLevel)) {
                 continue;
             }
+            if (requirement.acceptsAnyMembership()) {
+                LOG.info(format("User `{0}` is member of `{1}` {2}.", gitLabUser.getUsername(), fullPath, type));
+            } else {
+                LOG.info(format("User `{0}` is member of `{1}` {2} with access level `{3}`.", gitLabUser.getUsername(), fullPath, type, accessLevel));
+            }
+            grantedRoles.set(requirement.role());
+        }
+    }
 
-            final Map<String, List<String>> projectsFromRole = role.roleConfiguration().projects();
+    private List<GitLabGroupSummary> groups(GitLabConfiguration gitLabConfiguration, GitLabClient gitLabClient, List<GitLabRole> roles) throws IOException {
+        final Set<String> referencedGroups = referenced(roles, GitLabRoleConfiguration::groups);
+        if (gitLabConfiguration.lookupByPath() && allFullPaths(referencedGroups)) {
+            return gitLabClient.groupsByPath(gitLabConfiguration.personalAccessToken(), referencedGroups);
+        }
+        if (gitLabConfiguration.catalogRefreshIntervalInSeconds() > 0) {
+            return gitLabCatalog.groups(gitLabClient, gitLabConfiguration.personalAccessToken(), Duration.ofSeconds(gitLabConfiguration.catalogRefreshIntervalInSeconds()));
+        }
+        return gitLabClient.groups(gitLabConfiguration.personalAccessToken());
+    }
 
-            if (projectMembershipChecker.memberOfAtLeastOneProject(gitLabUser, personalAccessToken, gitLabClient, projectsFromGitLab, projectsFromRole)) {
-                assignedRoles.add(role.name());
-            }
+    private List<GitLabProjectSummary> projects(GitLabConfiguration gitLabConfiguration, GitLabClient gitLabClient, List<GitLabRole> roles) throws IOException {
+        final Set<String> referencedProjects = referenced(roles, GitLabRoleConfiguration::projects);
+        if (gitLabConfiguration.lookupByPath() && allFullPaths(referencedProjects)) {
+            return gitLabClient.projectsByPath(gitLabConfiguration.personalAccessToken(), referencedProjects);
+        }
+        final ProjectsFilter filter = gitLabConfiguration.filterProjectsByMembership() ? ProjectsFilter.membership(lowestRequiredProjectAccessLevel(roles)) : ProjectsFilter.NONE;
+        if (gitLabConfiguration.catalogRefreshIntervalInSeconds() > 0) {
+            return gitLabCatalog.projects(gitLabClient, gitLabConfiguration.personalAccessToken(), filter, Duration.ofSeconds(gitLabConfiguration.catalogRefreshIntervalInSeconds()));
         }
+        if (filter.isMembership()) {
+            return gitLabClient.projects(gitLabConfiguration.personalAccessToken(), filter);
+        }
+        return gitLabClient.projects(gitLabConfiguration.personalAccessToken());
+    }
 
-        return assignedRoles;
+    private Set<String> referenced(List<GitLabRole> roles, Function<GitLabRoleConfiguration, Map<String, List<String>>> entries) {
+        final Set<String> referenced = new LinkedHashSet<>();
+        roles.forEach(role -> referenced.addAll(entries.apply(role.roleConfiguration()).keySet()));
+        return referenced;
+    }
+
+    /**
+     * Names of groups and projects cannot contain a `/`, so an entry containing one can only be a full path. Any other
+     * entry may match several groups or projects by name, which only a listing finds.
+     */
+    private boolean allFullPaths(Set<String> entries) {
+        return entries.stream().allMatch(entry -> entry.contains("/"));
+    }
+
+    private MemberIndex memberIndexFor(GitLabConfiguration gitLabConfiguration, GitLabClient gitLabClient) {
+        if (gitLabConfiguration.memberIndexRefreshIntervalInSeconds() <= 0) {
+            return MemberIndex.NONE;
+        }
+        return new MemberIndex(gitLabCatalog, gitLabClient, gitLabConfiguration.personalAccessToken(),
+                Duration.ofSeconds(gitLabConfiguration.memberIndexRefreshIntervalInSeconds()), Duration.ofSeconds(gitLabConfiguration.memberIndexSyncIntervalInSeconds()));
+    }
+
+    /**
+     * Group listings filtered by access level describe the user owning the access token, so they can only stand in for
+     * per-group member lookups when that user is being authorized.
+     */
+    private GroupAccessLevels groupAccessLevelsFor(GitLabUser gitLabUser, String personalAccessToken, GitLabClient gitLabClient, List<GitLabRole> roles) throws IOException {
+        final boolean accessLevelsRequired = roles.stream().anyMatch(role -> role.roleConfiguration().groups().values().stream().anyMatch(levels -> !levels.isEmpty()));
+        if (!accessLevelsRequired || gitLabClient.tokenOwnerId(personalAccessToken) != gitLabUser.getId()) {
+            return GroupAccessLevels.NONE;
+        }
+        return GroupAccessLevels.resolve(gitLabClient, personalAccessToken, roles);
+    }
+
+    /**
+     * @return the lowest access level any role requires on a project, or null when some role accepts any membership.
+     */
+    private AccessLevel lowestRequiredProjectAccessLevel(List<GitLabRole> roles) {
+        AccessLevel lowest = null;
+        for (GitLabRole role : roles) {
+            final CompiledRoleConfiguration roleConfiguration = role.roleConfiguration().compiled();
+            for (Map.Entry<String, List<String>> project : roleConfiguration.projects().entrySet()) {
+                if (project.getValue().isEmpty()) {
+                    return null;
+                }
+                final Set<AccessLevel> accessLevels = roleConfiguration.projectAccessLevels().get(project.getKey());
+                if (!accessLevels.isEmpty() && (lowest == null || accessLevels.iterator().next().getValue() < lowest.getValue())) {
+                    lowest = accessLevels.iterator().next();
+                }
+            }
+        }
+        return lowest;
     }
 
     private List<String> checkIfUserIsWhiteListed(String username, List<GitLabRole> roles) {
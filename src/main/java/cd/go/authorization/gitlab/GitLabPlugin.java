@@ -39,6 +39,7 @@ public class GitLabPlugin implements GoPlugin {
     @Override
     public void initializeGoApplicationAccessor(GoApplicationAccessor accessor) {
         this.accessor = accessor;
+        CacheSnapshot.start();
     }
 
     @Override
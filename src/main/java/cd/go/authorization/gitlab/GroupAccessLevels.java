@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.client.GitLabClient;
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabGroupSummary;
+import cd.go.authorization.gitlab.models.GitLabRole;
+
+import java.io.IOException;
+import java.util.*;
+
+import static cd.go.authorization.gitlab.GitLabPlugin.LOG;
+import static java.text.MessageFormat.format;
+
+/**
+ * Access levels of the user owning the personal access token on groups, resolved with a few
+ * `/groups?min_access_level=N` calls for the access levels used in role configurations.
+ * <p>
+ * The group listing reports the effective access level of the token owner, which includes access inherited from parent
+ * groups, while roles are granted on direct membership as reported by the member api for every other user. The listing
+ * therefore only rules groups out: a direct membership can never be above the effective access level, so a group not
+ * listed for the lowest required access level needs no member api call. Any other group is still looked up through
+ * the member api, so the token owner is authorized exactly like any other user.
+ */
+public class GroupAccessLevels {
+    public static final GroupAccessLevels NONE = new GroupAccessLevels(Collections.emptyMap());
+
+    private final Map<AccessLevel, Set<Long>> groupIdsByMinAccessLevel;
+
+    GroupAccessLevels(Map<AccessLevel, Set<Long>> groupIdsByMinAccessLevel) {
+        this.groupIdsByMinAccessLevel = groupIdsByMinAccessLevel;
+    }
+
+    public static GroupAccessLevels resolve(GitLabClient gitLabClient, String personalAccessToken, List<GitLabRole> roles) throws IOException {
+        final EnumSet<AccessLevel> minAccessLevels = EnumSet.noneOf(AccessLevel.class);
+        for (Set<AccessLevel> accessLevels : requiredAccessLevels(roles)) {
+            if (!accessLevels.isEmpty()) {
+                minAccessLevels.add(accessLevels.iterator().next());
+            }
+        }
+        if (minAccessLevels.isEmpty()) {
+            return NONE;
+        }
+
+        final Map<AccessLevel, Set<Long>> groupIdsByMinAccessLevel = new EnumMap<>(AccessLevel.class);
+        for (AccessLevel minAccessLevel : minAccessLevels) {
+            final Set<Long> groupIds = new HashSet<>();
+            for (GitLabGroupSummary group : gitLabClient.groups(personalAccessToken, minAccessLevel)) {
+                groupIds.add(group.getId());
+            }
+            groupIdsByMinAccessLevel.put(minAccessLevel, groupIds);
+        }
+        LOG.debug(format("Resolved group access levels with {0} group listings.", minAccessLevels.size()));
+        return new GroupAccessLevels(groupIdsByMinAccessLevel);
+    }
+
+    public boolean isResolved() {
+        return !groupIdsByMinAccessLevel.isEmpty();
+    }
+
+    /**
+     * @return true when the effective access level of the token owner on the group is below all of the given access
+     * levels, so that its direct membership cannot have any of them either.
+     */
+    public boolean rulesOut(long groupId, Set<AccessLevel> accessLevels) {
+        if (accessLevels.isEmpty()) {
+            return true;
+        }
+        final Set<Long> groupIds = groupIdsByMinAccessLevel.get(accessLevels.iterator().next());
+        return groupIds != null && !groupIds.contains(groupId);
+    }
+
+    private static List<Set<AccessLevel>> requiredAccessLevels(List<GitLabRole> roles) {
+        final List<Set<AccessLevel>> accessLevels = new ArrayList<>();
+        for (GitLabRole role : roles) {
+            accessLevels.addAll(role.roleConfiguration().compiled().groupAccessLevels().values());
+        }
+        return accessLevels;
+    }
+}
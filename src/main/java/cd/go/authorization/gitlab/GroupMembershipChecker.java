@@ -16,49 +16,62 @@
 
 package cd.go.authorization.gitlab;
 
-import cd.go.authorization.gitlab.client.GitLabClient;
-import cd.go.authorization.gitlab.client.models.GitLabGroup;
+import cd.go.authorization.gitlab.client.models.GitLabGroupSummary;
 import cd.go.authorization.gitlab.client.models.GitLabUser;
-import cd.go.authorization.gitlab.client.models.MembershipInfo;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
 import static cd.go.authorization.gitlab.GitLabPlugin.LOG;
 import static java.text.MessageFormat.format;
 
 public class GroupMembershipChecker {
 
-    public boolean memberOfAtLeastOneGroup(GitLabUser gitLabUser, String personalAccessToken, GitLabClient gitLabClient, List<GitLabGroup> groupsFromGitLabForAUser, Map<String, List<String>> groupsFromRole) throws IOException {
-        final List<GitLabGroup> matchingGroups = filterGroupBasedOnRoleConfiguration(groupsFromGitLabForAUser, groupsFromRole);
+    /**
+     * Walks the groups of the user once, granting every role of the index with a group entry the user satisfies. Roles
+     * needing the access level of the user are then granted from the member lookups, which skip groups whose roles are
+     * all granted already.
+     *
+     * @param grantedRoles      roles of the index already granted; updated with the roles granted by group membership.
+     * @param groupAccessLevels access levels of the user on groups, when already known, to skip groups.
+     * @param lookups           membership lookups of the authorization, otherwise.
+     */
+    public void grantRoles(GitLabUser gitLabUser, List<GitLabGroupSummary> groupsFromGitLabForAUser, RoleIndex roleIndex, BitSet grantedRoles, GroupAccessLevels groupAccessLevels, MembershipLookups lookups) throws IOException {
+        final List<MembershipLookups.Candidate> candidates = new ArrayList<>();
+        for (GitLabGroupSummary gitLabGroup : groupsFromGitLabForAUser) {
+            if (grantedRoles.cardinality() == roleIndex.size()) {
+                return;
+            }
 
-        for (GitLabGroup gitLabGroup : matchingGroups) {
-            final List<String> accessLevels = groupsFromRole.get(gitLabGroup.getName());
+            List<RoleIndex.Requirement> accessLevelRequirements = null;
+            for (RoleIndex.Requirement requirement : roleIndex.groupRequirements(gitLabGroup.getName(), gitLabGroup.getFullPath())) {
+                if (grantedRoles.get(requirement.role())) {
+                    continue;
+                }
 
-            if (accessLevels == null || accessLevels.isEmpty()) {
-                LOG.info(format("User `{0}` is member of `{1}` group.", gitLabUser.getUsername(), gitLabGroup.getName()));
-                return true;
-            }
+                if (requirement.acceptsAnyMembership()) {
+                    LOG.info(format("User `{0}` is member of `{1}` group.", gitLabUser.getUsername(), gitLabGroup.getName()));
+                    grantedRoles.set(requirement.role());
+                    continue;
+                }
 
-            final MembershipInfo membershipInfo = gitLabClient.groupMembershipInfo(personalAccessToken, gitLabGroup.getId(), gitLabUser.getId());
+                if (groupAccessLevels.rulesOut(gitLabGroup.getId(), requirement.accessLevels())) {
+                    continue;
+                }
 
-            if (membershipInfo.getAccessLevel() != null && accessLevels.contains(membershipInfo.getAccessLevel().toString().toLowerCase())) {
-                LOG.info(format("User `{0}` is member of `{1}` group with access level `{2}`.", gitLabUser.getUsername(), gitLabGroup.getName(), membershipInfo.getAccessLevel()));
-                return true;
+                if (accessLevelRequirements == null) {
+                    accessLevelRequirements = new ArrayList<>();
+                }
+                accessLevelRequirements.add(requirement);
             }
-        }
-        return false;
-    }
 
-    private List<GitLabGroup> filterGroupBasedOnRoleConfiguration(List<GitLabGroup> groupsFromGitLab, Map<String, List<String>> groupsFromRole) throws IOException {
-        final List<GitLabGroup> gitLabGroups = new ArrayList<>();
-        for (GitLabGroup groupFromGitLab : groupsFromGitLab) {
-            if (groupsFromRole.containsKey(groupFromGitLab.getName())) {
-                gitLabGroups.add(groupFromGitLab);
+            if (accessLevelRequirements != null) {
+                candidates.add(new MembershipLookups.Candidate("group", gitLabGroup.getName(), accessLevelRequirements,
+                        () -> lookups.groupAccessLevelLookup(gitLabGroup.getId(), gitLabUser.getId())));
             }
         }
-        return gitLabGroups;
+        lookups.grantRoles(gitLabUser, candidates, grantedRoles);
     }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.client.GitLabCatalog;
+import cd.go.authorization.gitlab.client.GitLabClient;
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabGroupSummary;
+import cd.go.authorization.gitlab.client.models.GitLabProjectSummary;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Direct members of groups and projects, listed once per group or project and shared by all logins through the
+ * {@link GitLabCatalog}. The access level of a user is then a map lookup instead of a call to the member api. Member
+ * lists are refreshed in the background, so membership changes are seen after at most one refresh interval, or one
+ * sync interval when they are kept up to date from audit events.
+ * <p>
+ * Members are first listed in the background too, starting with the first login that needs them, so no login waits for
+ * a listing; until it is ready, lookups go to the member api.
+ */
+public class MemberIndex {
+    public static final MemberIndex NONE = new MemberIndex(null, null, null, Duration.ZERO, Duration.ZERO);
+
+    private final GitLabCatalog gitLabCatalog;
+    private final GitLabClient gitLabClient;
+    private final String personalAccessToken;
+    private final Duration refreshInterval;
+    private final Duration syncInterval;
+
+    MemberIndex(GitLabCatalog gitLabCatalog, GitLabClient gitLabClient, String personalAccessToken, Duration refreshInterval, Duration syncInterval) {
+        this.gitLabCatalog = gitLabCatalog;
+        this.gitLabClient = gitLabClient;
+        this.personalAccessToken = personalAccessToken;
+        this.refreshInterval = refreshInterval;
+        this.syncInterval = syncInterval;
+    }
+
+    public boolean isEnabled() {
+        return gitLabCatalog != null;
+    }
+
+    /**
+     * Starts listing in the background the members of the groups and projects on which roles require an access level,
+     * so that the member api is only used until they are listed. Members listed already are left as they are.
+     */
+    public void preload(List<GitLabGroupSummary> groups, List<GitLabProjectSummary> projects, RoleIndex roleIndex) {
+        groups.stream()
+                .filter(group -> requiresAccessLevel(roleIndex.groupRequirements(group.getName(), group.getFullPath())))
+                .forEach(group -> groupMembers(group.getId()));
+        projects.stream()
+                .filter(project -> requiresAccessLevel(roleIndex.projectRequirements(project.getName(), project.getFullPath())))
+                .forEach(project -> projectMembers(project.getId()));
+    }
+
+    /**
+     * @return the access level of every direct member of the group, by user id, or null while they are being listed.
+     */
+    public Map<Long, AccessLevel> groupMembers(long groupId) {
+        return gitLabCatalog.loadedGroupMembers(gitLabClient, personalAccessToken, groupId, refreshInterval, syncInterval);
+    }
+
+    /**
+     * @return the access level of every direct member of the project, by user id, or null while they are being listed.
+     */
+    public Map<Long, AccessLevel> projectMembers(long projectId) {
+        return gitLabCatalog.loadedProjectMembers(gitLabClient, personalAccessToken, projectId, refreshInterval, syncInterval);
+    }
+
+    private static boolean requiresAccessLevel(List<RoleIndex.Requirement> requirements) {
+        return requirements.stream().anyMatch(requirement -> !requirement.acceptsAnyMembership());
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.client.GitLabClient;
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabUser;
+import cd.go.authorization.gitlab.client.models.MembershipInfo;
+import okhttp3.HttpUrl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static cd.go.authorization.gitlab.GitLabPlugin.LOG;
+import static java.text.MessageFormat.format;
+
+/**
+ * Membership lookups of one authorization. Each group and project member api call is made at most once per user, even
+ * when several roles, or several entries of a listing, refer to the same group or project. A new instance is used for
+ * every authorization.
+ * <p>
+ * With a concurrency above 1, the lookups deciding roles are made with the asynchronous api of the {@link GitLabClient},
+ * so they do not hold a thread each while in flight. The calls in flight to one GitLab server are capped by that
+ * concurrency across all authorizations. Lookups still in flight are cancelled, together with their calls to GitLab,
+ * once every role they could grant is granted.
+ */
+public class MembershipLookups {
+    private static final ConcurrentMap<String, CallsInFlight> CALLS_IN_FLIGHT = new ConcurrentHashMap<>();
+    private static final AtomicLong SAVED_CALLS = new AtomicLong();
+
+    private final GitLabClient gitLabClient;
+    private final String personalAccessToken;
+    private final MemberIndex memberIndex;
+    private final CallsInFlight callsInFlight;
+    private final Map<Key, MembershipInfo> groupMemberships = new ConcurrentHashMap<>();
+    private final Map<Key, MembershipInfo> projectMemberships = new ConcurrentHashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger savedCalls = new AtomicInteger();
+
+    public MembershipLookups(GitLabClient gitLabClient, String personalAccessToken, MemberIndex memberIndex) {
+        this(gitLabClient, personalAccessToken, memberIndex, (CallsInFlight) null);
+    }
+
+    /**
+     * @param gitLabBaseURL the GitLab server, whose calls in flight are capped by the concurrency. When auth configs of
+     *                      the same server have different concurrencies, the last one used applies.
+     * @param concurrency   how many lookups may be made at once to the server, 1 to make them one by one.
+     */
+    public MembershipLookups(GitLabClient gitLabClient, String personalAccessToken, MemberIndex memberIndex, String gitLabBaseURL, int concurrency) {
+        this(gitLabClient, personalAccessToken, memberIndex, concurrency > 1 ? callsInFlight(gitLabBaseURL, concurrency) : null);
+    }
+
+    MembershipLookups(GitLabClient gitLabClient, String personalAccessToken, MemberIndex memberIndex, CallsInFlight callsInFlight) {
+        this.gitLabClient = gitLabClient;
+        this.personalAccessToken = personalAccessToken;
+        this.memberIndex = memberIndex;
+        this.callsInFlight = callsInFlight;
+    }
+
+    /**
+     * @return the access level of the user on the group, or null when the user is not a direct member of it.
+     */
+    public AccessLevel groupAccessLevel(long groupId, long userId) throws IOException {
+        return await(groupAccessLevelLookup(groupId, userId));
+    }
+
+    /**
+     * @return the access level of the user on the project, or null when the user is not a direct member of it.
+     */
+    public AccessLevel projectAccessLevel(long projectId, long userId) throws IOException {
+        return await(projectAccessLevelLookup(projectId, userId));
+    }
+
+    /**
+     * @return the access level of the user on the group, or null when the user is not a direct member of it. The
+     * lookup is only still in flight when lookups are concurrent; cancelling it cancels the call to GitLab.
+     */
+    public CompletableFuture<AccessLevel> groupAccessLevelLookup(long groupId, long userId) {
+        final Map<Long, AccessLevel> members = memberIndex.isEnabled() ? memberIndex.groupMembers(groupId) : null;
+        if (members != null) {
+            return CompletableFuture.completedFuture(members.get(userId));
+        }
+        return lookUp(groupMemberships, new Key(groupId, userId),
+                () -> gitLabClient.groupMembershipInfo(personalAccessToken, groupId, userId),
+                () -> gitLabClient.groupMembershipInfoAsync(personalAccessToken, groupId, userId));
+    }
+
+    /**
+     * @return the access level of the user on the project, or null when the user is not a direct member of it.
+     * @see #groupAccessLevelLookup(long, long)
+     */
+    public CompletableFuture<AccessLevel> projectAccessLevelLookup(long projectId, long userId) {
+        final Map<Long, AccessLevel> members = memberIndex.isEnabled() ? memberIndex.projectMembers(projectId) : null;
+        if (members != null) {
+            return CompletableFuture.completedFuture(members.get(userId));
+        }
+        return lookUp(projectMemberships, new Key(projectId, userId),
+                () -> gitLabClient.projectMembershipInfo(personalAccessToken, projectId, userId),
+                () -> gitLabClient.projectMembershipInfoAsync(personalAccessToken, projectId, userId));
+    }
+
+    /**
+     * @return true when the user owns the personal access token, so listings made with it describe the user.
+     */
+    public boolean isTokenOwner(GitLabUser gitLabUser) throws IOException {
+        return gitLabClient.tokenOwnerId(personalAccessToken) == gitLabUser.getId();
+    }
+
+    /**
+     * Looks up the access level of the user on each candidate whose roles are not all granted yet, and grants the
+     * roles it satisfies.
+     */
+    public void grantRoles(GitLabUser gitLabUser, List<Candidate> candidates, BitSet grantedRoles) throws IOException {
+        if (callsInFlight == null || candidates.size() < 2) {
+            for (Candidate candidate : candidates) {
+                if (!candidate.isDecided(grantedRoles)) {
+                    candidate.grantRoles(gitLabUser, await(candidate.lookup.accessLevel()), grantedRoles);
+                }
+            }
+            return;
+        }
+
+        final Deque<Candidate> waiting = new ArrayDeque<>(candidates);
+        final Map<CompletableFuture<AccessLevel>, Candidate> pending = new HashMap<>();
+        final BlockingQueue<CompletableFuture<AccessLevel>> done = new LinkedBlockingQueue<>();
+        try {
+            startLookups(waiting, pending, done, grantedRoles, true);
+            while (!pending.isEmpty()) {
+                final CompletableFuture<AccessLevel> finished = done.take();
+                final Candidate candidate = pending.remove(finished);
+                if (candidate == null) {
+                    continue;
+                }
+                candidate.grantRoles(gitLabUser, await(finished), grantedRoles);
+                pending.entrySet().removeIf(entry -> entry.getValue().isDecided(grantedRoles) && entry.getKey().cancel(true));
+                // only wait for a call to finish elsewhere when none of this authorization is in flight anymore
+                startLookups(waiting, pending, done, grantedRoles, pending.isEmpty());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while looking up memberships of " + gitLabUser.getUsername());
+        } finally {
+            pending.keySet().forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Start the lookups of the waiting candidates which are not decided yet, as long as calls are allowed in flight.
+     *
+     * @param mayWait whether to wait for the first call allowed in flight, instead of leaving the candidates waiting.
+     */
+    private void startLookups(Deque<Candidate> waiting, Map<CompletableFuture<AccessLevel>, Candidate> pending, BlockingQueue<CompletableFuture<AccessLevel>> done, BitSet grantedRoles, boolean mayWait) throws IOException, InterruptedException {
+        while (!waiting.isEmpty()) {
+            if (waiting.peek().isDecided(grantedRoles)) {
+                waiting.poll();
+                continue;
+            }
+            if (mayWait) {
+                callsInFlight.acquire();
+                mayWait = false;
+            } else if (!callsInFlight.tryAcquire()) {
+                return;
+            }
+
+            final Candidate candidate = waiting.poll();
+            final CompletableFuture<AccessLevel> lookup;
+            try {
+                lookup = candidate.lookup.accessLevel();
+            } catch (IOException | RuntimeException e) {
+                callsInFlight.release();
+                throw e;
+            }
+            pending.put(lookup, candidate);
+            lookup.whenComplete((accessLevel, e) -> {
+                callsInFlight.release();
+                done.add(lookup);
+            });
+        }
+    }
+
+    /**
+     * Lookups are made on the calling thread, unless they are concurrent.
+     */
+    private CompletableFuture<AccessLevel> lookUp(Map<Key, MembershipInfo> memberships, Key key, MembershipLookup lookup, Supplier<CompletableFuture<MembershipInfo>> asyncLookup) {
+        final MembershipInfo membershipInfo = memberships.get(key);
+        if (membershipInfo != null) {
+            savedCalls.incrementAndGet();
+            SAVED_CALLS.incrementAndGet();
+            return CompletableFuture.completedFuture(membershipInfo.getAccessLevel());
+        }
+        calls.incrementAndGet();
+
+        if (callsInFlight == null) {
+            try {
+                return CompletableFuture.completedFuture(remember(memberships, key, lookup.call()));
+            } catch (IOException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        final CompletableFuture<MembershipInfo> call = asyncLookup.get();
+        final CompletableFuture<AccessLevel> accessLevel = call.thenApply(looked -> remember(memberships, key, looked));
+        accessLevel.whenComplete((ignored, e) -> {
+            if (accessLevel.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        return accessLevel;
+    }
+
+    private static AccessLevel remember(Map<Key, MembershipInfo> memberships, Key key, MembershipInfo looked) {
+        if (looked == null) {
+            return null;
+        }
+        memberships.put(key, looked);
+        return looked.getAccessLevel();
+    }
+
+    private static AccessLevel await(CompletableFuture<AccessLevel> lookup) throws IOException {
+        try {
+            return lookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while looking up a membership");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return the cap of calls in flight to the GitLab server of the url, set to the given concurrency.
+     */
+    static CallsInFlight callsInFlight(String gitLabBaseURL, int concurrency) {
+        final HttpUrl url = gitLabBaseURL == null ? null : HttpUrl.parse(gitLabBaseURL);
+        final String host = url == null ? String.valueOf(gitLabBaseURL) : url.host() + ":" + url.port();
+        final CallsInFlight callsInFlight = CALLS_IN_FLIGHT.computeIfAbsent(host, key -> new CallsInFlight(concurrency));
+        callsInFlight.limit(concurrency);
+        return callsInFlight;
+    }
+
+    /**
+     * @return the number of member api calls made.
+     */
+    public int calls() {
+        return calls.get();
+    }
+
+    /**
+     * @return the number of member api calls answered from earlier lookups of this authorization.
+     */
+    public int savedCalls() {
+        return savedCalls.get();
+    }
+
+    /**
+     * @return the number of member api calls saved by all authorizations since the plugin was started.
+     */
+    public static long totalSavedCalls() {
+        return SAVED_CALLS.get();
+    }
+
+    /**
+     * The access level of the user on a candidate, or null when the user is not a direct member of it.
+     */
+    public interface AccessLevelLookup {
+        CompletableFuture<AccessLevel> accessLevel() throws IOException;
+    }
+
+    private interface MembershipLookup {
+        MembershipInfo call() throws IOException;
+    }
+
+    /**
+     * The number of lookups in flight to one GitLab server, and how many are allowed.
+     */
+    static final class CallsInFlight {
+        private int limit;
+        private int inFlight;
+
+        CallsInFlight(int limit) {
+            this.limit = limit;
+        }
+
+        synchronized void limit(int limit) {
+            this.limit = limit;
+            notifyAll();
+        }
+
+        synchronized boolean tryAcquire() {
+            if (inFlight >= limit) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+
+        synchronized void acquire() throws InterruptedException {
+            while (inFlight >= limit) {
+                wait();
+            }
+            inFlight++;
+        }
+
+        synchronized void release() {
+            inFlight--;
+            notifyAll();
+        }
+
+        synchronized int inFlight() {
+            return inFlight;
+        }
+    }
+
+    /**
+     * A group or project of the user, and the roles its membership can grant.
+     */
+    public static final class Candidate {
+        private final String type;
+        private final String name;
+        private final List<RoleIndex.Requirement> requirements;
+        private final AccessLevelLookup lookup;
+
+        public Candidate(String type, String name, List<RoleIndex.Requirement> requirements, AccessLevelLookup lookup) {
+            this.type = type;
+            this.name = name;
+            this.requirements = requirements;
+            this.lookup = lookup;
+        }
+
+        private boolean isDecided(BitSet grantedRoles) {
+            return requirements.stream().allMatch(requirement -> grantedRoles.get(requirement.role()));
+        }
+
+        private void grantRoles(GitLabUser gitLabUser, AccessLevel accessLevel, BitSet grantedRoles) {
+            for (RoleIndex.Requirement requirement : requirements) {
+                if (!grantedRoles.get(requirement.role()) && requirement.isSatisfiedBy(accessLevel)) {
+                    LOG.info(format("User `{0}` is member of `{1}` {2} with access level `{3}`.", gitLabUser.getUsername(), name, type, accessLevel));
+                    grantedRoles.set(requirement.role());
+                }
+            }
+        }
+    }
+
+    private static final class Key {
+        private final long id;
+        private final long userId;
+
+        private Key(long id, long userId) {
+            this.id = id;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return id == that.id && userId == that.userId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, userId);
+        }
+    }
+}
@@ -16,49 +16,69 @@
 
 package cd.go.authorization.gitlab;
 
-import cd.go.authorization.gitlab.client.GitLabClient;
-import cd.go.authorization.gitlab.client.models.GitLabProject;
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabProjectSummary;
 import cd.go.authorization.gitlab.client.models.GitLabUser;
-import cd.go.authorization.gitlab.client.models.MembershipInfo;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static cd.go.authorization.gitlab.GitLabPlugin.LOG;
 import static java.text.MessageFormat.format;
 
 public class ProjectMembershipChecker {
 
-    public boolean memberOfAtLeastOneProject(GitLabUser gitLabUser, String personalAccessToken, GitLabClient gitLabClient, List<GitLabProject> projectsFromGitLabForAUser, Map<String, List<String>> projectsFromRole) throws IOException {
-        final List<GitLabProject> matchingProjects = filterGroupBasedOnRoleConfiguration(projectsFromGitLabForAUser, projectsFromRole);
+    /**
+     * Walks the projects of the user once, granting every role of the index with a project entry the user satisfies.
+     *
+     * @param grantedRoles roles of the index already granted; updated with the roles granted by project membership.
+     * @param lookups      membership lookups of the authorization.
+     * @see GroupMembershipChecker#grantRoles
+     */
+    public void grantRoles(GitLabUser gitLabUser, List<GitLabProjectSummary> projectsFromGitLabForAUser, RoleIndex roleIndex, BitSet grantedRoles, MembershipLookups lookups) throws IOException {
+        final List<MembershipLookups.Candidate> candidates = new ArrayList<>();
+        for (GitLabProjectSummary gitLabProject : projectsFromGitLabForAUser) {
+            if (grantedRoles.cardinality() == roleIndex.size()) {
+                return;
+            }
 
-        for (GitLabProject gitLabProject : matchingProjects) {
-            final List<String> accessLevels = projectsFromRole.get(gitLabProject.getName());
+            List<RoleIndex.Requirement> accessLevelRequirements = null;
+            for (RoleIndex.Requirement requirement : roleIndex.projectRequirements(gitLabProject.getName(), gitLabProject.getFullPath())) {
+                if (grantedRoles.get(requirement.role())) {
+                    continue;
+                }
 
-            if (accessLevels == null || accessLevels.isEmpty()) {
-                LOG.info(format("User `{0}` is member of `{1}` project.", gitLabUser.getUsername(), gitLabProject.getName()));
-                return true;
-            }
+                if (requirement.acceptsAnyMembership()) {
+                    LOG.info(format("User `{0}` is member of `{1}` project.", gitLabUser.getUsername(), gitLabProject.getName()));
+                    grantedRoles.set(requirement.role());
+                    continue;
+                }
 
-            final MembershipInfo membershipInfo = gitLabClient.projectMembershipInfo(personalAccessToken, gitLabProject.getId(), gitLabUser.getId());
+                if (accessLevelRequirements == null) {
+                    accessLevelRequirements = new ArrayList<>();
+                }
+                accessLevelRequirements.add(requirement);
+            }
 
-            if (membershipInfo.getAccessLevel() != null && accessLevels.contains(membershipInfo.getAccessLevel().toString().toLowerCase())) {
-                LOG.info(format("User `{0}` is member of `{1}` project with access level `{2}`.", gitLabUser.getUsername(), gitLabProject.getName(), membershipInfo.getAccessLevel()));
-                return true;
+            if (accessLevelRequirements != null) {
+                candidates.add(new MembershipLookups.Candidate("project", gitLabProject.getName(), accessLevelRequirements,
+                        () -> projectAccessLevel(gitLabUser, gitLabProject, lookups)));
             }
         }
-        return false;
+        lookups.grantRoles(gitLabUser, candidates, grantedRoles);
     }
 
-    private List<GitLabProject> filterGroupBasedOnRoleConfiguration(List<GitLabProject> projectsFromGitLab, Map<String, List<String>> projectsFromRole) throws IOException {
-        final List<GitLabProject> gitLabProjects = new ArrayList<>();
-        for (GitLabProject projectFromGitLab : projectsFromGitLab) {
-            if (projectsFromRole.containsKey(projectFromGitLab.getName())) {
-                gitLabProjects.add(projectFromGitLab);
-            }
+    /**
+     * The permissions block of a project listing describes the user owning the access token. When that is the user
+     * being authorized, it answers the question without another call to the project member api.
+     */
+    private CompletableFuture<AccessLevel> projectAccessLevel(GitLabUser gitLabUser, GitLabProjectSummary gitLabProject, MembershipLookups lookups) throws IOException {
+        if (gitLabProject.hasPermissions() && lookups.isTokenOwner(gitLabUser)) {
+            return CompletableFuture.completedFuture(gitLabProject.getProjectAccessLevel());
         }
-        return gitLabProjects;
+        return lookups.projectAccessLevelLookup(gitLabProject.getId(), gitLabUser.getId());
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.models.CompiledRoleConfiguration;
+import cd.go.authorization.gitlab.models.GitLabRole;
+
+import java.util.*;
+
+/**
+ * Inverted index from the group and project names used in role configurations to the roles referring to them, so
+ * that the groups and projects of a user are walked once for all roles, instead of once per role. Roles are identified
+ * by their position in the list the index was built from.
+ */
+public final class RoleIndex {
+    private final int size;
+    private final Map<String, List<Requirement>> groups;
+    private final Map<String, List<Requirement>> projects;
+
+    private RoleIndex(int size, Map<String, List<Requirement>> groups, Map<String, List<Requirement>> projects) {
+        this.size = size;
+        this.groups = groups;
+        this.projects = projects;
+    }
+
+    public static RoleIndex of(List<GitLabRole> roles) {
+        final Map<String, List<Requirement>> groups = new HashMap<>();
+        final Map<String, List<Requirement>> projects = new HashMap<>();
+        for (int role = 0; role < roles.size(); role++) {
+            final CompiledRoleConfiguration roleConfiguration = roles.get(role).roleConfiguration().compiled();
+            add(groups, role, roleConfiguration.groups(), roleConfiguration.groupAccessLevels());
+            add(projects, role, roleConfiguration.projects(), roleConfiguration.projectAccessLevels());
+        }
+        return new RoleIndex(roles.size(), groups, projects);
+    }
+
+    private static void add(Map<String, List<Requirement>> index, int role, Map<String, List<String>> entries, Map<String, Set<AccessLevel>> accessLevels) {
+        entries.forEach((name, names) -> index.computeIfAbsent(name, key -> new ArrayList<>(1)).add(new Requirement(role, names.isEmpty(), accessLevels.get(name))));
+    }
+
+    /**
+     * @return the number of roles in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the requirements of the roles referring to the group by name or by full path. A role referring to the
+     * group both ways is only required to satisfy the entry for the name.
+     */
+    public List<Requirement> groupRequirements(String name, String fullPath) {
+        return requirements(groups, name, fullPath);
+    }
+
+    /**
+     * @see #groupRequirements(String, String)
+     */
+    public List<Requirement> projectRequirements(String name, String fullPath) {
+        return requirements(projects, name, fullPath);
+    }
+
+    private static List<Requirement> requirements(Map<String, List<Requirement>> index, String name, String fullPath) {
+        final List<Requirement> byName = name == null ? null : index.get(name);
+        final List<Requirement> byFullPath = fullPath == null || fullPath.equals(name) ? null : index.get(fullPath);
+        if (byFullPath == null) {
+            return byName == null ? Collections.emptyList() : byName;
+        }
+        if (byName == null) {
+            return byFullPath;
+        }
+
+        final BitSet rolesByName = new BitSet(byName.size());
+        byName.forEach(requirement -> rolesByName.set(requirement.role()));
+        final List<Requirement> requirements = new ArrayList<>(byName);
+        byFullPath.stream().filter(requirement -> !rolesByName.get(requirement.role())).forEach(requirements::add);
+        return requirements;
+    }
+
+    /**
+     * Access levels a role requires on a group or project; any membership satisfies a requirement without them.
+     */
+    public static final class Requirement {
+        private final int role;
+        private final boolean anyMembership;
+        private final Set<AccessLevel> accessLevels;
+
+        Requirement(int role, boolean anyMembership, Set<AccessLevel> accessLevels) {
+            this.role = role;
+            this.anyMembership = anyMembership;
+            this.accessLevels = accessLevels;
+        }
+
+        public int role() {
+            return role;
+        }
+
+        public boolean acceptsAnyMembership() {
+            return anyMembership;
+        }
+
+        public Set<AccessLevel> accessLevels() {
+            return accessLevels;
+        }
+
+        public boolean isSatisfiedBy(AccessLevel accessLevel) {
+            return anyMembership || accessLevel != null && accessLevels.contains(accessLevel);
+        }
+    }
+}
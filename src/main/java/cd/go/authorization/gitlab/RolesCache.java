@@ -0,0 +1,258 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.models.AuthConfig;
+import cd.go.authorization.gitlab.models.GitLabRole;
+import okio.ByteString;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Plugin-wide cache of authorization decisions, i.e. whether a role was granted to a GitLab user.
+ * <p>
+ * Decisions are cached per role, keyed by a fingerprint of the auth config, the user id and a fingerprint of the role
+ * configuration. Changing a role configuration therefore only invalidates the decisions for that role. Every auth
+ * config gets its own bounded segment, which evicts the least recently used decisions first.
+ * <p>
+ * Decisions past their refresh time are still returned (flagged as stale) until they expire, so callers can refresh
+ * them in the background instead of making the current request wait for GitLab.
+ */
+public class RolesCache {
+    private static final RolesCache INSTANCE = new RolesCache(Clock.systemUTC());
+
+    private final Clock clock;
+    private final Map<String, Segment> segments = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    RolesCache(Clock clock) {
+        this.clock = clock;
+    }
+
+    public static RolesCache instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the cached decision, or null when the decision is not cached or has expired.
+     */
+    public synchronized Decision get(String authConfigId, String key) {
+        final Segment segment = segments.get(authConfigId);
+        final Entry entry = segment == null ? null : segment.get(key);
+
+        final long now = clock.millis();
+        if (entry == null || entry.expiresAt <= now) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new Decision(entry.granted, entry.refreshAt <= now);
+    }
+
+    /**
+     * @param refreshAfter age after which the decision is still returned, but reported as stale. Ignored when zero or
+     *                     not shorter than the ttl.
+     * @param ttl          age after which the decision is no longer returned
+     */
+    public synchronized void put(String authConfigId, String key, boolean granted, Duration refreshAfter, Duration ttl, int maxSize) {
+        final Segment segment = segments.computeIfAbsent(authConfigId, id -> new Segment());
+        segment.maxSize = maxSize;
+        if (segment.size() >= maxSize) {
+            segment.evictExpired(clock.millis());
+        }
+
+        final long now = clock.millis();
+        final long expiresAt = now + ttl.toMillis();
+        final long refreshAt = refreshAfter.isZero() ? expiresAt : Math.min(expiresAt, now + refreshAfter.toMillis());
+        segment.put(key, new Entry(granted, refreshAt, expiresAt));
+    }
+
+    /**
+     * Claims the refresh of a stale decision, so that only one refresh runs for it at a time. The claim is released
+     * when the decision is put again, or by {@link #refreshFailed(String, String)}.
+     *
+     * @return false when the decision is not cached anymore or is already being refreshed.
+     */
+    public synchronized boolean startRefresh(String authConfigId, String key) {
+        final Segment segment = segments.get(authConfigId);
+        final Entry entry = segment == null ? null : segment.get(key);
+        if (entry == null || entry.refreshing) {
+            return false;
+        }
+        entry.refreshing = true;
+        return true;
+    }
+
+    public synchronized void refreshFailed(String authConfigId, String key) {
+        final Segment segment = segments.get(authConfigId);
+        final Entry entry = segment == null ? null : segment.get(key);
+        if (entry != null) {
+            entry.refreshing = false;
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return segments.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public synchronized void clear() {
+        segments.clear();
+    }
+
+    /**
+     * Writes the decisions which have not expired yet, least recently used first. See {@link CacheSnapshot}.
+     */
+    synchronized void writeTo(DataOutputStream out) throws IOException {
+        final long now = clock.millis();
+        out.writeInt(segments.size());
+        for (Map.Entry<String, Segment> segment : segments.entrySet()) {
+            final List<Map.Entry<String, Entry>> entries = segment.getValue().entrySet().stream()
+                    .filter(entry -> entry.getValue().expiresAt > now)
+                    .collect(toList());
+
+            out.writeUTF(segment.getKey());
+            out.writeInt(segment.getValue().maxSize);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries) {
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(entry.getValue().granted);
+                out.writeLong(entry.getValue().expiresAt);
+            }
+        }
+    }
+
+    /**
+     * Restores decisions written by {@link #writeTo(DataOutputStream)}. Restored decisions are stale right away, so
+     * they are used but refreshed in the background the first time they are needed. Decisions cached since the plugin
+     * started are kept.
+     *
+     * @return the number of restored decisions
+     */
+    synchronized int readFrom(DataInputStream in) throws IOException {
+        final long now = clock.millis();
+        int restored = 0;
+        final int segmentCount = in.readInt();
+        for (int i = 0; i < segmentCount; i++) {
+            final String authConfigId = in.readUTF();
+            final int maxSize = in.readInt();
+            final int entryCount = in.readInt();
+
+            final Segment segment = segments.computeIfAbsent(authConfigId, id -> new Segment());
+            segment.maxSize = Math.max(segment.maxSize, maxSize);
+            for (int j = 0; j < entryCount; j++) {
+                final String key = in.readUTF();
+                final boolean granted = in.readBoolean();
+                final long expiresAt = in.readLong();
+                if (expiresAt > now && !segment.containsKey(key)) {
+                    segment.put(key, new Entry(granted, now, expiresAt));
+                    restored++;
+                }
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * @return a fingerprint of the auth config, so that decisions made with a different GitLab url or access token are
+     * not reused.
+     */
+    public static String fingerprint(AuthConfig authConfig) {
+        return fingerprint(String.valueOf(authConfig.gitLabConfiguration().toJSON()));
+    }
+
+    public static String key(String authConfigFingerprint, long userId, GitLabRole role) {
+        final String roleConfiguration = role.roleConfiguration() == null ? null : role.roleConfiguration().toJSON();
+        return authConfigFingerprint + "|" + userId + "|" + fingerprint(role.name() + "|" + roleConfiguration);
+    }
+
+    private static String fingerprint(String value) {
+        return ByteString.encodeUtf8(value).sha256().hex();
+    }
+
+    private static class Segment extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private int maxSize;
+
+        private Segment() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+
+        private void evictExpired(long now) {
+            values().removeIf(entry -> entry.expiresAt <= now);
+        }
+    }
+
+    public static class Decision {
+        private final boolean granted;
+        private final boolean stale;
+
+        private Decision(boolean granted, boolean stale) {
+            this.granted = granted;
+            this.stale = stale;
+        }
+
+        public boolean isGranted() {
+            return granted;
+        }
+
+        /**
+         * @return true when the decision is past its refresh time, but not expired yet.
+         */
+        public boolean isStale() {
+            return stale;
+        }
+    }
+
+    private static class Entry {
+        private final boolean granted;
+        private final long refreshAt;
+        private final long expiresAt;
+        private boolean refreshing;
+
+        private Entry(boolean granted, long refreshAt, long expiresAt) {
+            this.granted = granted;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -17,8 +17,11 @@
 package cd.go.authorization.gitlab.client;
 
 import cd.go.authorization.gitlab.CallbackURL;
-import cd.go.authorization.gitlab.client.models.GitLabGroup;
-import cd.go.authorization.gitlab.client.models.GitLabProject;
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.AuditEvent;
+import cd.go.authorization.gitlab.client.models.AuditEvents;
+import cd.go.authorization.gitlab.client.models.GitLabGroupSummary;
+import cd.go.authorization.gitlab.client.models.GitLabProjectSummary;
 import cd.go.authorization.gitlab.client.models.GitLabUser;
 import cd.go.authorization.gitlab.client.models.MembershipInfo;
 import cd.go.authorization.gitlab.models.GitLabConfiguration;
@@ -27,33 +30,88 @@ import cd.go.authorization.gitlab.utils.Util;
 import okhttp3.*;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static cd.go.authorization.gitlab.GitLabPlugin.LOG;
 import static cd.go.authorization.gitlab.utils.Util.isNotBlank;
 import static java.lang.String.valueOf;
 import static java.text.MessageFormat.format;
+import static java.util.stream.Collectors.toList;
 
 public class GitLabClient {
     public static final String API_ERROR_MSG = "Api call to `{0}` failed with error: `{1}`";
+    private static final ConcurrentMap<String, Long> TOKEN_OWNER_IDS = new ConcurrentHashMap<>();
+    static final int MAX_PARALLEL_PAGES = 4;
+    private static final Pattern NEXT_LINK_PATTERN = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"next\"");
     private final GitLabConfiguration gitLabConfiguration;
     private final OkHttpClient httpClient;
+    private final PageCache pageCache;
+    private final MembershipCache membershipCache;
+    private final SingleFlight singleFlight;
+    private final RateLimitScheduler rateLimitScheduler;
+    private final AtomicInteger coalescedCalls = new AtomicInteger();
 
     public GitLabClient(GitLabConfiguration gitLabConfiguration) {
-        this(gitLabConfiguration,
-                new OkHttpClient.Builder()
-                        .connectTimeout(10, TimeUnit.SECONDS)
-                        .writeTimeout(10, TimeUnit.SECONDS)
-                        .readTimeout(30, TimeUnit.SECONDS)
-                        .build()
-        );
+        this(gitLabConfiguration, GitLabHttpClients.instance().client());
     }
 
     public GitLabClient(GitLabConfiguration gitLabConfiguration, OkHttpClient httpClient) {
+        // pages are only worth keeping around when listings are refreshed by the catalog
+        this(gitLabConfiguration, httpClient, gitLabConfiguration.catalogRefreshIntervalInSeconds() > 0 ? PageCache.instance() : null);
+    }
+
+    GitLabClient(GitLabConfiguration gitLabConfiguration, OkHttpClient httpClient, PageCache pageCache) {
+        this(gitLabConfiguration, httpClient, pageCache, MembershipCache.instance());
+    }
+
+    GitLabClient(GitLabConfiguration gitLabConfiguration, OkHttpClient httpClient, PageCache pageCache, MembershipCache membershipCache) {
+        this(gitLabConfiguration, httpClient, pageCache, membershipCache, SingleFlight.instance());
+    }
+
+    GitLabClient(GitLabConfiguration gitLabConfiguration, OkHttpClient httpClient, PageCache pageCache, MembershipCache membershipCache, SingleFlight singleFlight) {
+        this(gitLabConfiguration, httpClient, pageCache, membershipCache, singleFlight, RateLimitScheduler.instance());
+    }
+
+    GitLabClient(GitLabConfiguration gitLabConfiguration, OkHttpClient httpClient, PageCache pageCache, MembershipCache membershipCache,
+                 SingleFlight singleFlight, RateLimitScheduler rateLimitScheduler) {
         this.gitLabConfiguration = gitLabConfiguration;
         this.httpClient = httpClient;
+        this.pageCache = pageCache;
+        this.membershipCache = membershipCache;
+        this.singleFlight = singleFlight;
+        this.rateLimitScheduler = rateLimitScheduler;
+    }
+
+    /**
+     * @return the number of GitLab calls of this client which shared the result of an identical call in flight instead
+     * of being made.
+     */
+    public int coalescedCalls() {
+        return coalescedCalls.get();
+    }
+
+    /**
+     * @return the number of GitLab calls which shared the result of an identical call in flight instead of being made,
+     * since the plugin was started.
+     */
+    public static long totalCoalescedCalls() {
+        return SingleFlight.instance().coalescedCalls();
     }
 
     public List<String> authorizationServerArgs(String callbackUrl) {
@@ -114,47 +172,317 @@ public class GitLabClient {
     public GitLabUser user(String personalAccessToken) throws IOException {
         LOG.info("Fetching gitlab user profile (with personal/group access token).");
 
+        return executeRequest(userRequest(personalAccessToken), response -> GitLabUser.fromJSON(response.body().string()));
+    }
+
+    /**
+     * Asynchronous variant of {@link #user(String)}, which does not block the calling thread.
+     */
+    public CompletableFuture<GitLabUser> userAsync(String personalAccessToken) {
+        LOG.info("Fetching gitlab user profile asynchronously (with personal/group access token).");
+
+        return executeRequestAsync(userRequest(personalAccessToken), response -> GitLabUser.fromJSON(response.body().string()));
+    }
+
+    private Request userRequest(String personalAccessToken) {
         final String userProfileUrl = apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(), "user");
 
-        final Request request = getRequestWithAccessToken(userProfileUrl,personalAccessToken);
+        return getRequestWithAccessToken(userProfileUrl, personalAccessToken);
+    }
+
+    /**
+     * @return the id of the user owning the given personal/group access token. As the owner of a token never changes,
+     * it is only looked up once per token.
+     */
+    public long tokenOwnerId(String personalAccessToken) throws IOException {
+        final String key = credentialsKey(personalAccessToken);
+        final Long tokenOwnerId = TOKEN_OWNER_IDS.get(key);
+        if (tokenOwnerId != null) {
+            return tokenOwnerId;
+        }
 
-        return executeRequest(request, response -> GitLabUser.fromJSON(response.body().string()));
+        final long id = user(personalAccessToken).getId();
+        TOKEN_OWNER_IDS.put(key, id);
+        return id;
     }
 
-    public List<GitLabGroup> groups(String personalAccessToken) throws IOException {
+    /**
+     * @return a key identifying the GitLab instance and the access token, without containing the token itself.
+     */
+    String credentialsKey(String personalAccessToken) {
+        return GitLabHttpClients.credentialsKey(gitLabConfiguration.gitLabBaseURL(), personalAccessToken);
+    }
+
+    public List<GitLabGroupSummary> groups(String personalAccessToken) throws IOException {
+        return groups(personalAccessToken, null);
+    }
+
+    /**
+     * @param minAccessLevel when not null, only list groups where the token owner has at least this access level
+     */
+    public List<GitLabGroupSummary> groups(String personalAccessToken, AccessLevel minAccessLevel) throws IOException {
         LOG.info("Fetching gitlab groups for a user (with personal/group access token).");
 
-        final String groupsUrl = apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(),  "groups");
-        final Request request = getRequestWithAccessToken(groupsUrl,personalAccessToken);
+        return executeRequestRepeated(groupsRequest(personalAccessToken, minAccessLevel), response -> GitLabGroupSummary.fromJSONArray(response.body().charStream()));
+    }
+
+    /**
+     * Asynchronous variant of {@link #groups(String, AccessLevel)}, which does not block the calling thread.
+     */
+    public CompletableFuture<List<GitLabGroupSummary>> groupsAsync(String personalAccessToken, AccessLevel minAccessLevel) {
+        return groupsAsync(personalAccessToken, minAccessLevel, CompletableFuture::completedFuture).thenApply(GitLabClient::concat);
+    }
+
+    /**
+     * List groups asynchronously, handing every page to {@code onPage} as soon as it is loaded, so that work on a page
+     * (e.g. looking up memberships) overlaps with loading the next ones.
+     *
+     * @param onPage called once per page, possibly concurrently and on an OkHttp thread. It must not block.
+     * @return the results of {@code onPage}, in page order
+     */
+    public <R> CompletableFuture<List<R>> groupsAsync(String personalAccessToken, AccessLevel minAccessLevel, Function<List<GitLabGroupSummary>, CompletableFuture<R>> onPage) {
+        LOG.info("Fetching gitlab groups for a user asynchronously (with personal/group access token).");
+
+        return executeRequestRepeatedAsync(groupsRequest(personalAccessToken, minAccessLevel), response -> GitLabGroupSummary.fromJSONArray(response.body().charStream()), onPage);
+    }
 
-        return executeRequestRepeated(request, response -> GitLabGroup.fromJSONArray(response.body().string()));
+    private Request groupsRequest(String personalAccessToken, AccessLevel minAccessLevel) {
+        final HttpUrl.Builder groupsUrl = HttpUrl.parse(apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(), "groups")).newBuilder();
+        if (minAccessLevel != null) {
+            groupsUrl.addQueryParameter("min_access_level", valueOf(minAccessLevel.getValue()));
+        }
+        groupsUrl.addQueryParameter("per_page", valueOf(pageSize()));
+        return getRequestWithAccessToken(groupsUrl.build().toString(), personalAccessToken);
     }
 
-    public List<GitLabProject> projects(String personalAccessToken) throws IOException {
+    public List<GitLabProjectSummary> projects(String personalAccessToken) throws IOException {
+        return projects(personalAccessToken, ProjectsFilter.NONE);
+    }
+
+    public List<GitLabProjectSummary> projects(String personalAccessToken, ProjectsFilter filter) throws IOException {
         LOG.info("Fetching gitlab projects for a user (with personal/group access token).");
 
-        final String projectsUrl = apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(),  "projects");
-        final Request request = getRequestWithAccessToken(projectsUrl,personalAccessToken);
+        return executeRequestRepeated(projectsRequest(personalAccessToken, filter), response -> GitLabProjectSummary.fromJSONArray(response.body().charStream()));
+    }
+
+    /**
+     * Asynchronous variant of {@link #projects(String, ProjectsFilter)}, which does not block the calling thread.
+     */
+    public CompletableFuture<List<GitLabProjectSummary>> projectsAsync(String personalAccessToken, ProjectsFilter filter) {
+        return projectsAsync(personalAccessToken, filter, CompletableFuture::completedFuture).thenApply(GitLabClient::concat);
+    }
+
+    /**
+     * List projects asynchronously, handing every page to {@code onPage} as soon as it is loaded.
+     *
+     * @param onPage called once per page, possibly concurrently and on an OkHttp thread. It must not block.
+     * @return the results of {@code onPage}, in page order
+     * @see #groupsAsync(String, AccessLevel, Function)
+     */
+    public <R> CompletableFuture<List<R>> projectsAsync(String personalAccessToken, ProjectsFilter filter, Function<List<GitLabProjectSummary>, CompletableFuture<R>> onPage) {
+        LOG.info("Fetching gitlab projects for a user asynchronously (with personal/group access token).");
+
+        return executeRequestRepeatedAsync(projectsRequest(personalAccessToken, filter), response -> GitLabProjectSummary.fromJSONArray(response.body().charStream()), onPage);
+    }
+
+    private Request projectsRequest(String personalAccessToken, ProjectsFilter filter) {
+        final HttpUrl.Builder projectsUrl = HttpUrl.parse(apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(), "projects")).newBuilder();
+        filter.applyTo(projectsUrl);
+        if (gitLabConfiguration.keysetPagination()) {
+            // keyset pagination does not slow down with the page number and is not capped at 50k rows like offset pagination
+            projectsUrl.addQueryParameter("pagination", "keyset")
+                    .addQueryParameter("order_by", "id")
+                    .addQueryParameter("sort", "asc");
+        }
+        projectsUrl.addQueryParameter("per_page", valueOf(pageSize()));
+        return getRequestWithAccessToken(projectsUrl.build().toString(), personalAccessToken);
+    }
+
+    /**
+     * Look up groups by their full path (e.g. `acme/platform`) in parallel, instead of listing every group visible to
+     * the access token.
+     *
+     * @return the groups found, in the order of the given paths. Paths which do not exist or are not visible to the
+     * access token are left out.
+     */
+    public List<GitLabGroupSummary> groupsByPath(String personalAccessToken, Collection<String> fullPaths) throws IOException {
+        LOG.info(format("Looking up {0} gitlab group(s) by path (with personal/group access token).", fullPaths.size()));
+
+        return executeRequestsIfFound(requestsByPath(personalAccessToken, "groups", fullPaths), response -> GitLabGroupSummary.fromJSON(response.body().charStream()));
+    }
+
+    /**
+     * Look up projects by their full path (e.g. `acme/platform/api`) in parallel, instead of listing every project
+     * visible to the access token.
+     *
+     * @return the projects found, in the order of the given paths. Paths which do not exist or are not visible to the
+     * access token are left out.
+     */
+    public List<GitLabProjectSummary> projectsByPath(String personalAccessToken, Collection<String> fullPaths) throws IOException {
+        LOG.info(format("Looking up {0} gitlab project(s) by path (with personal/group access token).", fullPaths.size()));
 
-        return executeRequestRepeated(request, response -> GitLabProject.fromJSONArray(response.body().string()));
+        return executeRequestsIfFound(requestsByPath(personalAccessToken, "projects", fullPaths), response -> GitLabProjectSummary.fromJSON(response.body().charStream()));
     }
 
+    /**
+     * @return the membership of the user in the group, without access level when the user is not a member of it.
+     */
     public MembershipInfo groupMembershipInfo(String personalAccessToken, long groupId, long memberId) throws IOException {
         LOG.info(format("Fetching group membership info for member `{1}` to a group `{0}`. (with personal/group access token)", groupId, memberId));
 
-        final String membershipUrl = apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(), toPathArray("groups", groupId, "members", memberId));
-        final Request request = getRequestWithAccessToken(membershipUrl, personalAccessToken);
+        return membershipInfo(personalAccessToken, "groups", groupId, memberId);
+    }
+
+    /**
+     * Asynchronous variant of {@link #groupMembershipInfo(String, long, long)}. Cancelling the returned future cancels
+     * the call to GitLab.
+     */
+    public CompletableFuture<MembershipInfo> groupMembershipInfoAsync(String personalAccessToken, long groupId, long memberId) {
+        LOG.info(format("Fetching group membership info for member `{1}` to a group `{0}` asynchronously. (with personal/group access token)", groupId, memberId));
 
-        return executeRequest(request, response -> MembershipInfo.fromJSON(response.body().string()));
+        return membershipInfoAsync(personalAccessToken, "groups", groupId, memberId);
     }
 
+    /**
+     * @return the membership of the user in the project, without access level when the user is not a member of it.
+     */
     public MembershipInfo projectMembershipInfo(String personalAccessToken, long projectId, long memberId) throws IOException {
         LOG.info(format("Fetching group membership info for member `{1}` to a project `{0}`. (with personal/group access token)", projectId, memberId));
 
-        final String membershipUrl = apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(), toPathArray("projects", projectId, "members", memberId));
-        final Request request = getRequestWithAccessToken(membershipUrl, personalAccessToken);
+        return membershipInfo(personalAccessToken, "projects", projectId, memberId);
+    }
+
+    /**
+     * Asynchronous variant of {@link #projectMembershipInfo(String, long, long)}. Cancelling the returned future
+     * cancels the call to GitLab.
+     */
+    public CompletableFuture<MembershipInfo> projectMembershipInfoAsync(String personalAccessToken, long projectId, long memberId) {
+        LOG.info(format("Fetching group membership info for member `{1}` to a project `{0}` asynchronously. (with personal/group access token)", projectId, memberId));
+
+        return membershipInfoAsync(personalAccessToken, "projects", projectId, memberId);
+    }
+
+    /**
+     * The member api answers `404 Not Found` for users who are not members, which is the most common answer. Both
+     * answers are cached, users who are not members for a shorter time.
+     */
+    private MembershipInfo membershipInfo(String personalAccessToken, String resource, long id, long memberId) throws IOException {
+        final String key = membershipCacheKey(personalAccessToken, resource, id, memberId);
+        final MembershipInfo cached = cachedMembershipInfo(key, resource, id, memberId);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Request request = membershipRequest(personalAccessToken, resource, id, memberId);
+        return execute(request, membershipInfoFrom(request, key, memberId));
+    }
+
+    private CompletableFuture<MembershipInfo> membershipInfoAsync(String personalAccessToken, String resource, long id, long memberId) {
+        final String key = membershipCacheKey(personalAccessToken, resource, id, memberId);
+        final MembershipInfo cached = cachedMembershipInfo(key, resource, id, memberId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        final Request request = membershipRequest(personalAccessToken, resource, id, memberId);
+        return enqueue(request, membershipInfoFrom(request, key, memberId));
+    }
 
-        return executeRequest(request, response -> MembershipInfo.fromJSON(response.body().string()));
+    private String membershipCacheKey(String personalAccessToken, String resource, long id, long memberId) {
+        return credentialsKey(personalAccessToken) + "|" + resource + "|" + id + "|" + memberId;
+    }
+
+    private MembershipInfo cachedMembershipInfo(String key, String resource, long id, long memberId) {
+        final MembershipInfo cached = membershipCache.get(key);
+        if (cached != null) {
+            LOG.debug(format("Found membership of member `{0}` to `{1}/{2}` in cache.", memberId, resource, id));
+        }
+        return cached;
+    }
+
+    private Request membershipRequest(String personalAccessToken, String resource, long id, long memberId) {
+        final String membershipUrl = apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(), toPathArray(resource, id, "members", memberId));
+        return getRequestWithAccessToken(membershipUrl, personalAccessToken);
+    }
+
+    private Callback<MembershipInfo> membershipInfoFrom(Request request, String key, long memberId) {
+        return response -> {
+            if (response.code() == 404) {
+                response.close();
+                final MembershipInfo notAMember = MembershipInfo.notAMember(memberId);
+                membershipCache.put(key, notAMember, Duration.ofSeconds(gitLabConfiguration.nonMembershipCacheTTLInSeconds()));
+                return notAMember;
+            }
+
+            final MembershipInfo membershipInfo = MembershipInfo.fromJSON(ensureSuccessful(request, response).body().string());
+            membershipCache.put(key, membershipInfo, Duration.ofSeconds(gitLabConfiguration.membershipCacheTTLInSeconds()));
+            return membershipInfo;
+        };
+    }
+
+    /**
+     * @return the direct members of the group
+     */
+    public List<MembershipInfo> groupMembers(String personalAccessToken, long groupId) throws IOException {
+        LOG.info(format("Fetching members of group `{0}` (with personal/group access token).", groupId));
+
+        return executeRequestRepeated(membersRequest(personalAccessToken, "groups", groupId), response -> MembershipInfo.fromJSONArray(response.body().charStream()));
+    }
+
+    /**
+     * @return the direct members of the project
+     */
+    public List<MembershipInfo> projectMembers(String personalAccessToken, long projectId) throws IOException {
+        LOG.info(format("Fetching members of project `{0}` (with personal/group access token).", projectId));
+
+        return executeRequestRepeated(membersRequest(personalAccessToken, "projects", projectId), response -> MembershipInfo.fromJSONArray(response.body().charStream()));
+    }
+
+    /**
+     * @param createdAfter a time of GitLab's clock, null for the newest events.
+     * @return the first page of audit events of the group created after the given time, newest first, or null when
+     * audit events are not available (they require GitLab Premium and owner access to the group).
+     */
+    public AuditEvents groupAuditEvents(String personalAccessToken, long groupId, Instant createdAfter) throws IOException {
+        LOG.debug(format("Fetching audit events of group `{0}` since {1} (with personal/group access token).", groupId, createdAfter));
+
+        return auditEvents(personalAccessToken, "groups", groupId, createdAfter);
+    }
+
+    /**
+     * @param createdAfter a time of GitLab's clock, null for the newest events.
+     * @return the first page of audit events of the project created after the given time, newest first, or null when
+     * audit events are not available (they require GitLab Premium and maintainer access to the project).
+     */
+    public AuditEvents projectAuditEvents(String personalAccessToken, long projectId, Instant createdAfter) throws IOException {
+        LOG.debug(format("Fetching audit events of project `{0}` since {1} (with personal/group access token).", projectId, createdAfter));
+
+        return auditEvents(personalAccessToken, "projects", projectId, createdAfter);
+    }
+
+    private AuditEvents auditEvents(String personalAccessToken, String resource, long id, Instant createdAfter) throws IOException {
+        final HttpUrl.Builder auditEventsUrl = HttpUrl.parse(apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(), toPathArray(resource, id, "audit_events"))).newBuilder();
+        if (createdAfter != null) {
+            auditEventsUrl.addQueryParameter("created_after", createdAfter.toString());
+        }
+        auditEventsUrl.addQueryParameter("per_page", valueOf(pageSize()));
+        final Request request = getRequestWithAccessToken(auditEventsUrl.build().toString(), personalAccessToken);
+
+        return execute(request, response -> {
+            if (response.code() == 403 || response.code() == 404) {
+                response.close();
+                return null;
+            }
+            final Date date = response.headers().getDate("Date");
+            return new AuditEvents(AuditEvent.fromJSONArray(ensureSuccessful(request, response).body().charStream()), date == null ? null : date.toInstant());
+        });
+    }
+
+    private Request membersRequest(String personalAccessToken, String resource, long id) {
+        final HttpUrl membersUrl = HttpUrl.parse(apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(), toPathArray(resource, id, "members"))).newBuilder()
+                .addQueryParameter("per_page", valueOf(pageSize()))
+                .build();
+        return getRequestWithAccessToken(membersUrl.toString(), personalAccessToken);
     }
 
     private interface Callback<T> {
@@ -173,38 +501,384 @@ public class GitLabClient {
     }
 
     private <T> T executeRequest(Request request, Callback<T> callback) throws IOException {
-        return callback.onResponse(successfulResponseFor(request));
+        return execute(request, response -> callback.onResponse(ensureSuccessful(request, response)));
     }
 
     /**
-     * Repeatedly execute the request until all pages are loaded
+     * Make the call on the calling thread. A GET request identical to one in flight waits for it and shares its result.
      */
-    private <E, T extends List<E>> List<E> executeRequestRepeated(Request request, Callback<T> callback) throws IOException {
-        HttpUrl originalUrl = request.url();
-        List<E> result = new ArrayList<>();
+    private <T> T execute(Request request, Callback<T> callback) throws IOException {
+        if (!isGet(request)) {
+            return callback.onResponse(rateLimitScheduler.execute(httpClient, request));
+        }
+        return singleFlight.execute(flightKey(request), () -> callback.onResponse(rateLimitScheduler.execute(httpClient, request)),
+                coalescedCalls::incrementAndGet);
+    }
+
+    private <T> CompletableFuture<T> executeRequestAsync(Request request, Callback<T> callback) {
+        return enqueue(request, response -> callback.onResponse(ensureSuccessful(request, response)));
+    }
+
+    /**
+     * Enqueue the request on the dispatcher of the http client, instead of blocking the calling thread until it is
+     * answered. The callback runs on an OkHttp thread; cancelling the returned future cancels the call, unless it is a
+     * GET request shared with other callers which still wait for it.
+     */
+    private <T> CompletableFuture<T> enqueue(Request request, Callback<T> callback) {
+        if (!isGet(request)) {
+            return enqueueCall(request, callback);
+        }
+        return singleFlight.executeAsync(flightKey(request), () -> enqueueCall(request, callback), coalescedCalls::incrementAndGet);
+    }
 
-        String nextPage = null;
+    private <T> CompletableFuture<T> enqueueCall(Request request, Callback<T> callback) {
+        // the call runs on an OkHttp thread, which does not know the priority of the calling thread
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        enqueueCall(RateLimitScheduler.tagged(request), callback, future, 0);
+        return future;
+    }
 
-        do {
-            if (nextPage != null) {
-                request = request.newBuilder()
-                        .url(originalUrl.newBuilder().addQueryParameter("page", nextPage.trim()).build())
-                        .build();
+    /**
+     * Enqueue the call once it is its turn within the rate limits, and again while GitLab throttles it. Waiting for the
+     * turn happens on a timer, so neither the calling thread nor a thread of the dispatcher is held up.
+     */
+    private <T> void enqueueCall(Request request, Callback<T> callback, CompletableFuture<T> future, int attempt) {
+        final CompletableFuture<Void> turn = rateLimitScheduler.turn(request);
+        future.whenComplete((result, e) -> turn.cancel(true));
+        turn.thenRun(() -> {
+            final Call call = httpClient.newCall(request);
+            future.whenComplete((result, e) -> {
+                if (future.isCancelled()) {
+                    call.cancel();
+                }
+            });
+            if (future.isDone()) {
+                return;
             }
-            final Response response = successfulResponseFor(request);
+            call.enqueue(new okhttp3.Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    future.completeExceptionally(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    if (rateLimitScheduler.shouldRetry(request, response, attempt)) {
+                        response.close();
+                        enqueueCall(request, callback, future, attempt + 1);
+                        return;
+                    }
+                    try (response) {
+                        future.complete(callback.onResponse(response));
+                    } catch (IOException | RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Execute the request and load all remaining pages. When GitLab reports the total number of pages, the remaining
+     * pages are fetched concurrently; otherwise (e.g. for very large collections or keyset pagination) pages are loaded
+     * one after another by following the `x-next-page` header or the `next` link. Items are always returned in page order.
+     */
+    private <E, T extends List<E>> List<E> executeRequestRepeated(Request request, Callback<T> callback) throws IOException {
+        final PageCache.Page<E> firstPage = fetchPage(request, callback);
+        final List<E> result = new ArrayList<>(firstPage.items());
 
-            result.addAll(callback.onResponse(response));
+        final int totalPages = totalPages(firstPage);
+        if (totalPages > 1) {
+            result.addAll(executeRequestForPagesInParallel(request, callback, 2, totalPages));
+            return result;
+        }
+
+        Request nextPage = nextPageRequest(request, firstPage);
+        while (nextPage != null) {
+            final PageCache.Page<E> page = fetchPage(nextPage, callback);
+
+            result.addAll(page.items());
 
             // Check if there are more pages to load
-            nextPage = response.header("x-next-page");
-        } while (Util.isNotBlank(nextPage));
+            nextPage = nextPageRequest(nextPage, page);
+        }
 
         return result;
     }
 
-    private Response successfulResponseFor(Request request) throws IOException {
-        final Response response = httpClient.newCall(request).execute();
+    /**
+     * Asynchronous variant of {@link #executeRequestRepeated(Request, Callback)}: pages are handed to {@code onPage} as
+     * they are loaded, and the results of {@code onPage} are returned in page order.
+     */
+    private <E, T extends List<E>, R> CompletableFuture<List<R>> executeRequestRepeatedAsync(Request request, Callback<T> callback, Function<List<E>, CompletableFuture<R>> onPage) {
+        return this.<E, T>fetchPageAsync(request, callback).thenCompose(firstPage -> {
+            final List<CompletableFuture<R>> results = new ArrayList<>();
+            results.add(onPage.apply(firstPage.items()));
+
+            final int totalPages = totalPages(firstPage);
+            if (totalPages > 1) {
+                results.addAll(fetchPagesInParallel(request, callback, 2, totalPages, onPage));
+                return allOf(results);
+            }
+
+            return followNextPagesAsync(request, firstPage, callback, onPage, results);
+        });
+    }
+
+    private <E, T extends List<E>, R> CompletableFuture<List<R>> followNextPagesAsync(Request request, PageCache.Page<E> page, Callback<T> callback, Function<List<E>, CompletableFuture<R>> onPage, List<CompletableFuture<R>> results) {
+        final Request nextPage = nextPageRequest(request, page);
+        if (nextPage == null) {
+            return allOf(results);
+        }
+
+        return this.<E, T>fetchPageAsync(nextPage, callback).thenCompose(next -> {
+            results.add(onPage.apply(next.items()));
+            return followNextPagesAsync(nextPage, next, callback, onPage, results);
+        });
+    }
+
+    /**
+     * Fetch a page of a listing. With a page cache, the page is revalidated with its ETag and taken from the cache when
+     * GitLab reports it as not modified.
+     */
+    private <E, T extends List<E>> PageCache.Page<E> fetchPage(Request request, Callback<T> callback) throws IOException {
+        final String key = pageCacheKey(request);
+        final PageCache.Page<E> cachedPage = key == null ? null : pageCache.get(key);
+
+        return execute(conditionalRequest(request, cachedPage), pageFrom(request, key, cachedPage, callback));
+    }
+
+    private <E, T extends List<E>> CompletableFuture<PageCache.Page<E>> fetchPageAsync(Request request, Callback<T> callback) {
+        final String key = pageCacheKey(request);
+        final PageCache.Page<E> cachedPage = key == null ? null : pageCache.get(key);
+
+        return enqueue(conditionalRequest(request, cachedPage), pageFrom(request, key, cachedPage, callback));
+    }
+
+    private String pageCacheKey(Request request) {
+        return pageCache == null ? null : GitLabHttpClients.credentialsKey(request.url().toString(), request.header("Private-Token"));
+    }
+
+    private Request conditionalRequest(Request request, PageCache.Page<?> cachedPage) {
+        return cachedPage == null ? request : request.newBuilder().header("If-None-Match", cachedPage.etag()).build();
+    }
+
+    private <E, T extends List<E>> Callback<PageCache.Page<E>> pageFrom(Request request, String key, PageCache.Page<E> cachedPage, Callback<T> callback) {
+        return response -> {
+            if (cachedPage != null && response.code() == 304) {
+                response.close();
+                return cachedPage;
+            }
+
+            ensureSuccessful(request, response);
+            final PageCache.Page<E> page = new PageCache.Page<>(callback.onResponse(response), response.header("ETag"), response.headers());
+            if (key != null && page.etag() != null) {
+                pageCache.put(key, page);
+            }
+            return page;
+        };
+    }
+
+    private Request nextPageRequest(Request request, PageCache.Page<?> page) {
+        final String nextPage = page.header("x-next-page");
+        if (Util.isNotBlank(nextPage)) {
+            return requestForPage(request, nextPage.trim());
+        }
+
+        // keyset paginated responses only carry a `Link: <url>; rel="next"` header
+        final String link = page.header("Link");
+        if (Util.isBlank(link)) {
+            return null;
+        }
+
+        final Matcher matcher = NEXT_LINK_PATTERN.matcher(link);
+        if (!matcher.find()) {
+            return null;
+        }
+
+        final HttpUrl nextUrl = HttpUrl.parse(matcher.group(1));
+        if (nextUrl == null || !sameOrigin(nextUrl, request.url())) {
+            LOG.warn(format("Ignoring next page link `{0}` which does not point to `{1}`.", matcher.group(1), request.url().host()));
+            return null;
+        }
+        return request.newBuilder().url(nextUrl).build();
+    }
+
+    private boolean sameOrigin(HttpUrl url, HttpUrl other) {
+        return url.scheme().equals(other.scheme()) && url.host().equals(other.host()) && url.port() == other.port();
+    }
+
+    /**
+     * @return the number of items requested per page
+     */
+    public int pageSize() {
+        final int pageSize = gitLabConfiguration.pageSize();
+        return pageSize > 0 ? Math.min(pageSize, GitLabConfiguration.MAX_PAGE_SIZE) : GitLabConfiguration.DEFAULT_PAGE_SIZE;
+    }
+
+    private <E, T extends List<E>> List<E> executeRequestForPagesInParallel(Request request, Callback<T> callback, int fromPage, int toPage) throws IOException {
+        return concat(await(this.<E, T, List<E>>fetchPagesInParallel(request, callback, fromPage, toPage, CompletableFuture::completedFuture), request));
+    }
+
+    /**
+     * Fetch the given pages with at most {@link #MAX_PARALLEL_PAGES} of them in flight, the next page being requested
+     * as soon as one is loaded. Once a page fails or is cancelled, the other pages are cancelled.
+     *
+     * @return the results of {@code onPage} for each page, in page order.
+     */
+    private <E, T extends List<E>, R> List<CompletableFuture<R>> fetchPagesInParallel(Request request, Callback<T> callback, int fromPage, int toPage, Function<List<E>, CompletableFuture<R>> onPage) {
+        LOG.debug(format("Fetching pages {0} to {1} of `{2}` in parallel.", fromPage, toPage, request.url().encodedPath()));
+
+        final List<CompletableFuture<R>> results = new ArrayList<>();
+        for (int page = fromPage; page <= toPage; page++) {
+            results.add(new CompletableFuture<>());
+        }
+        final AtomicInteger nextPage = new AtomicInteger(fromPage);
+        for (int i = 0; i < Math.min(MAX_PARALLEL_PAGES, results.size()); i++) {
+            fetchNextPage(request, callback, fromPage, nextPage, onPage, results);
+        }
+        return results;
+    }
+
+    private <E, T extends List<E>, R> void fetchNextPage(Request request, Callback<T> callback, int fromPage, AtomicInteger nextPage, Function<List<E>, CompletableFuture<R>> onPage, List<CompletableFuture<R>> results) {
+        final int page = nextPage.getAndIncrement();
+        if (page - fromPage >= results.size()) {
+            return;
+        }
+
+        final CompletableFuture<R> result = results.get(page - fromPage);
+        if (result.isDone()) {
+            fetchNextPage(request, callback, fromPage, nextPage, onPage, results);
+            return;
+        }
+        final CompletableFuture<PageCache.Page<E>> fetch = fetchPageAsync(requestForPage(request, valueOf(page)), callback);
+        result.whenComplete((value, e) -> fetch.cancel(true));
+        fetch.whenComplete((loaded, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                results.forEach(other -> other.cancel(true));
+                return;
+            }
+            fetchNextPage(request, callback, fromPage, nextPage, onPage, results);
+            onPage.apply(loaded.items()).whenComplete((value, failure) -> {
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+    }
+
+    private List<Request> requestsByPath(String personalAccessToken, String resource, Collection<String> fullPaths) {
+        return fullPaths.stream()
+                .map(fullPath -> getRequestWithAccessToken(urlByPath(resource, fullPath), personalAccessToken))
+                .collect(toList());
+    }
+
+    private String urlByPath(String resource, String fullPath) {
+        final HttpUrl.Builder url = HttpUrl.parse(apiUrlWithPersonalAccessToken(gitLabConfiguration.gitLabBaseURL(), resource, fullPath)).newBuilder();
+        if ("groups".equals(resource)) {
+            // a single group embeds all of its projects unless asked not to
+            url.addQueryParameter("with_projects", "false");
+        }
+        return url.build().toString();
+    }
+
+    /**
+     * Execute the requests in parallel, leaving out the ones GitLab answers with `404 Not Found`.
+     */
+    private <T> List<T> executeRequestsIfFound(List<Request> requests, Callback<T> callback) throws IOException {
+        if (requests.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        final List<CompletableFuture<T>> calls = requests.stream().map(request -> enqueue(request, response -> {
+            if (response.code() == 404) {
+                response.close();
+                return null;
+            }
+            return callback.onResponse(ensureSuccessful(request, response));
+        })).collect(toList());
+
+        return await(calls, requests.get(0)).stream().filter(Objects::nonNull).collect(toList());
+    }
+
+    /**
+     * Wait for all the calls, which run concurrently on the dispatcher of the http client. When one of them fails, the
+     * others are cancelled and its error is rethrown.
+     */
+    private <T> List<T> await(List<CompletableFuture<T>> calls, Request request) throws IOException {
+        try {
+            return allOf(calls).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(format("Interrupted while fetching `{0}`.", request.url().encodedPath()), e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            calls.forEach(call -> call.cancel(true));
+        }
+    }
+
+    /**
+     * @return a future completed with the results of all the given futures in order, or with the first error of any of
+     * them, without waiting for the others
+     */
+    private static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        final CompletableFuture<List<T>> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> futures.stream().map(CompletableFuture::join).collect(toList()));
+        futures.forEach(future -> future.whenComplete((result, e) -> {
+            if (e != null && !(e instanceof CancellationException)) {
+                all.completeExceptionally(e);
+            }
+        }));
+        return all;
+    }
+
+    private static <E> List<E> concat(List<List<E>> pages) {
+        final List<E> result = new ArrayList<>();
+        pages.forEach(result::addAll);
+        return result;
+    }
+
+    private int totalPages(PageCache.Page<?> page) {
+        final String totalPages = page.header("x-total-pages");
+        if (Util.isBlank(totalPages)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(totalPages.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Request requestForPage(Request request, String page) {
+        return request.newBuilder()
+                .url(request.url().newBuilder().setQueryParameter("page", page).build())
+                .build();
+    }
+
+    private boolean isGet(Request request) {
+        return "GET".equals(request.method());
+    }
+
+    /**
+     * @return a key identifying the url and access token of the request, which does not contain the token itself
+     */
+    private String flightKey(Request request) {
+        return GitLabHttpClients.credentialsKey(request.url().toString(), request.header("Private-Token"));
+    }
 
+    private Response ensureSuccessful(Request request, Response response) throws IOException {
         if (!response.isSuccessful()) {
             final String responseBody = response.body() != null ? response.body().string() : "";
             final String errorMessage = isNotBlank(responseBody) ? responseBody : response.message();
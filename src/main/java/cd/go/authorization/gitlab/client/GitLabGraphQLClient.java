@@ -0,0 +1,197 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabMemberships;
+import cd.go.authorization.gitlab.client.models.GitLabUser;
+import cd.go.authorization.gitlab.models.GitLabConfiguration;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okhttp3.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cd.go.authorization.gitlab.GitLabPlugin.LOG;
+import static cd.go.authorization.gitlab.client.GitLabClient.API_ERROR_MSG;
+import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static cd.go.authorization.gitlab.utils.Util.isNotBlank;
+import static java.text.MessageFormat.format;
+
+/**
+ * Resolves the memberships of a user on groups and projects referenced by full path through the GitLab GraphQL api.
+ * Every group and project becomes an aliased field of one query, so a login costs one request per
+ * {@link #MAX_PATHS_PER_QUERY} paths instead of listing groups and projects and calling the member api for each match.
+ * <p>
+ * Like the member api, only direct memberships are considered.
+ */
+public class GitLabGraphQLClient {
+    static final int MAX_PATHS_PER_QUERY = 50;
+    static final int MAX_MEMBERS_PER_PATH = 100;
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final String USER_GLOBAL_ID_PREFIX = "gid://gitlab/User/";
+
+    private final GitLabConfiguration gitLabConfiguration;
+    private final OkHttpClient httpClient;
+
+    public GitLabGraphQLClient(GitLabConfiguration gitLabConfiguration) {
+        this(gitLabConfiguration, GitLabHttpClients.instance().client());
+    }
+
+    public GitLabGraphQLClient(GitLabConfiguration gitLabConfiguration, OkHttpClient httpClient) {
+        this.gitLabConfiguration = gitLabConfiguration;
+        this.httpClient = httpClient;
+    }
+
+    public GitLabMemberships memberships(String personalAccessToken, GitLabUser gitLabUser, Collection<String> groupPaths, Collection<String> projectPaths) throws IOException {
+        LOG.info(format("Fetching memberships of `{0}` on {1} group(s) and {2} project(s) (with GraphQL).", gitLabUser.getUsername(), groupPaths.size(), projectPaths.size()));
+
+        final List<Field> fields = new ArrayList<>();
+        groupPaths.forEach(path -> fields.add(new Field("group", "groupMembers", path)));
+        projectPaths.forEach(path -> fields.add(new Field("project", "projectMembers", path)));
+
+        final Map<String, AccessLevel> groups = new HashMap<>();
+        final Map<String, AccessLevel> projects = new HashMap<>();
+        for (int from = 0; from < fields.size(); from += MAX_PATHS_PER_QUERY) {
+            final List<Field> batch = fields.subList(from, Math.min(from + MAX_PATHS_PER_QUERY, fields.size()));
+            final JsonObject data = execute(personalAccessToken, query(batch), variables(gitLabUser, batch));
+
+            for (int i = 0; i < batch.size(); i++) {
+                final Field field = batch.get(i);
+                final JsonElement entity = data.get(alias(i));
+                if (entity == null || entity.isJsonNull()) {
+                    continue;
+                }
+                final AccessLevel accessLevel = accessLevelOf(gitLabUser, entity.getAsJsonObject().getAsJsonObject(field.membersField));
+                (field.type.equals("group") ? groups : projects).put(field.fullPath, accessLevel);
+            }
+        }
+        return new GitLabMemberships(groups, projects);
+    }
+
+    private static String query(List<Field> batch) {
+        final StringBuilder query = new StringBuilder("query($username: String!");
+        for (int i = 0; i < batch.size(); i++) {
+            query.append(", $").append(alias(i)).append(": ID!");
+        }
+        query.append(") {");
+        for (int i = 0; i < batch.size(); i++) {
+            final Field field = batch.get(i);
+            query.append(' ').append(alias(i)).append(": ").append(field.type).append("(fullPath: $").append(alias(i)).append(") {")
+                    .append(' ').append(field.membersField).append("(search: $username, relations: [DIRECT], first: ").append(MAX_MEMBERS_PER_PATH).append(") {")
+                    .append(" nodes { user { id } accessLevel { integerValue } }")
+                    .append(" } }");
+        }
+        return query.append(" }").toString();
+    }
+
+    private JsonObject variables(GitLabUser gitLabUser, List<Field> batch) {
+        final JsonObject variables = new JsonObject();
+        variables.addProperty("username", gitLabUser.getUsername());
+        for (int i = 0; i < batch.size(); i++) {
+            variables.addProperty(alias(i), batch.get(i).fullPath);
+        }
+        return variables;
+    }
+
+    /**
+     * Members are searched by username, which also matches similar names; only the node of the user itself counts.
+     */
+    private AccessLevel accessLevelOf(GitLabUser gitLabUser, JsonObject members) {
+        if (members == null || !members.has("nodes")) {
+            return null;
+        }
+
+        final String userGlobalId = USER_GLOBAL_ID_PREFIX + gitLabUser.getId();
+        for (JsonElement node : members.getAsJsonArray("nodes")) {
+            final JsonObject member = node.getAsJsonObject();
+            final JsonElement user = member.get("user");
+            if (user == null || user.isJsonNull() || !userGlobalId.equals(user.getAsJsonObject().get("id").getAsString())) {
+                continue;
+            }
+            final JsonElement accessLevel = member.get("accessLevel");
+            if (accessLevel == null || accessLevel.isJsonNull()) {
+                return null;
+            }
+            return AccessLevel.fromValue(accessLevel.getAsJsonObject().get("integerValue").getAsInt());
+        }
+        return null;
+    }
+
+    private JsonObject execute(String personalAccessToken, String query, JsonObject variables) throws IOException {
+        final JsonObject body = new JsonObject();
+        body.addProperty("query", query);
+        body.add("variables", variables);
+
+        final HttpUrl graphQLUrl = HttpUrl.parse(gitLabConfiguration.gitLabBaseURL()).newBuilder()
+                .addPathSegment("api")
+                .addPathSegment("graphql")
+                .build();
+
+        final Request request = new Request.Builder()
+                .url(graphQLUrl)
+                .addHeader("Authorization", "Bearer " + personalAccessToken)
+                .post(RequestBody.create(GSON.toJson(body), JSON))
+                .build();
+
+        try (Response response = RateLimitScheduler.instance().execute(httpClient, request)) {
+            final String responseBody = response.body() != null ? response.body().string() : "";
+            if (!response.isSuccessful()) {
+                throw new RuntimeException(format(API_ERROR_MSG, graphQLUrl.encodedPath(), isNotBlank(responseBody) ? responseBody : response.message()));
+            }
+
+            final JsonObject result = JsonParser.parseString(responseBody).getAsJsonObject();
+            // a partial result would silently deny roles, so any error fails the whole lookup
+            if (result.has("errors")) {
+                throw new RuntimeException(format(API_ERROR_MSG, graphQLUrl.encodedPath(), errorMessages(result.getAsJsonArray("errors"))));
+            }
+            return result.getAsJsonObject("data");
+        }
+    }
+
+    private String errorMessages(JsonArray errors) {
+        final List<String> messages = new ArrayList<>();
+        for (JsonElement error : errors) {
+            final JsonElement message = error.getAsJsonObject().get("message");
+            messages.add(message != null ? message.getAsString() : error.toString());
+        }
+        return String.join(", ", messages);
+    }
+
+    private static String alias(int index) {
+        return "e" + index;
+    }
+
+    private static class Field {
+        private final String type;
+        private final String membersField;
+        private final String fullPath;
+
+        Field(String type, String membersField, String fullPath) {
+            this.type = type;
+            this.membersField = membersField;
+            this.fullPath = fullPath;
+        }
+    }
+}
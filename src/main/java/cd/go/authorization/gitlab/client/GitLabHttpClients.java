@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okio.ByteString;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plugin-wide {@link OkHttpClient}.
+ * <p>
+ * GoCD sends the auth config with every request, so a {@link GitLabClient} is rebuilt for every request. All of them
+ * use the one client handed out here, with its connection pool and dispatcher, so connections (and their TLS
+ * sessions) to GitLab are reused across requests instead of being re-established on every login. Their calls are scheduled within the rate
+ * limits of GitLab by the {@link RateLimitScheduler}.
+ */
+public class GitLabHttpClients {
+    static final int MAX_IDLE_CONNECTIONS = 16;
+    static final long KEEP_ALIVE_DURATION_IN_SECONDS = 120;
+
+    private static final GitLabHttpClients INSTANCE = new GitLabHttpClients(
+            new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_IN_SECONDS, TimeUnit.SECONDS));
+
+    private final OkHttpClient sharedClient;
+
+    GitLabHttpClients(ConnectionPool connectionPool) {
+        this.sharedClient = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .addInterceptor(RateLimitScheduler.instance())
+                .build();
+    }
+
+    public static GitLabHttpClients instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the client shared by all GitLab servers and credentials
+     */
+    public OkHttpClient client() {
+        return sharedClient;
+    }
+
+    public ConnectionPool connectionPool() {
+        return sharedClient.connectionPool();
+    }
+
+    /**
+     * @return a key identifying a GitLab base url and access token, which does not contain the token itself.
+     */
+    static String credentialsKey(String baseURL, String personalAccessToken) {
+        final String credentials = personalAccessToken == null ? "" : ByteString.encodeUtf8(personalAccessToken).sha256().hex();
+        return baseURL + "|" + credentials;
+    }
+}
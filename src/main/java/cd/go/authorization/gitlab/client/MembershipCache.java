@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import cd.go.authorization.gitlab.client.models.MembershipInfo;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Plugin-wide store of member api lookups, i.e. the membership of one user in one group or project. Users are usually
+ * members of few of the groups and projects used in role configurations, so most lookups find no membership; those are
+ * kept too (for a shorter time, as a user being added is what an administrator waits for), so the next login does not
+ * ask GitLab again.
+ */
+class MembershipCache {
+    static final int MAX_ENTRIES = 100_000;
+    private static final MembershipCache INSTANCE = new MembershipCache(Clock.systemUTC(), MAX_ENTRIES);
+
+    private final Clock clock;
+    private final Map<String, Entry> entries;
+
+    MembershipCache(Clock clock, int maxEntries) {
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    static MembershipCache instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the cached membership, or null when it is not cached or has expired.
+     */
+    synchronized MembershipInfo get(String key) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= clock.millis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.membershipInfo;
+    }
+
+    /**
+     * @param ttl how long the membership is cached, nothing is cached when zero.
+     */
+    synchronized void put(String key, MembershipInfo membershipInfo, Duration ttl) {
+        if (!ttl.isZero()) {
+            entries.put(key, new Entry(membershipInfo, clock.millis() + ttl.toMillis()));
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final MembershipInfo membershipInfo;
+        private final long expiresAt;
+
+        private Entry(MembershipInfo membershipInfo, long expiresAt) {
+            this.membershipInfo = membershipInfo;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import okhttp3.Headers;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plugin-wide store of decoded listing pages and their ETags. Requesting a page again with its ETag in the
+ * `If-None-Match` header lets GitLab answer `304 Not Modified` when the page did not change, so refreshing a listing
+ * only transfers and decodes the pages which did.
+ */
+class PageCache {
+    static final int MAX_PAGES = 1_000;
+    private static final PageCache INSTANCE = new PageCache(MAX_PAGES);
+
+    private final Map<String, Page<?>> pages;
+
+    PageCache(int maxPages) {
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Page<?>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    static PageCache instance() {
+        return INSTANCE;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <E> Page<E> get(String key) {
+        return (Page<E>) pages.get(key);
+    }
+
+    synchronized void put(String key, Page<?> page) {
+        pages.put(key, page);
+    }
+
+    synchronized int size() {
+        return pages.size();
+    }
+
+    /**
+     * Items of a page along with the headers needed to find the next pages.
+     */
+    static class Page<E> {
+        private static final List<String> PAGINATION_HEADERS = List.of("x-next-page", "x-total-pages", "Link");
+
+        private final List<E> items;
+        private final String etag;
+        private final Headers headers;
+
+        Page(List<E> items, String etag, Headers headers) {
+            this.items = items;
+            this.etag = etag;
+            final Headers.Builder paginationHeaders = new Headers.Builder();
+            for (String name : PAGINATION_HEADERS) {
+                final String value = headers.get(name);
+                if (value != null) {
+                    paginationHeaders.add(name, value);
+                }
+            }
+            this.headers = paginationHeaders.build();
+        }
+
+        List<E> items() {
+            return items;
+        }
+
+        String etag() {
+            return etag;
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+    }
+}
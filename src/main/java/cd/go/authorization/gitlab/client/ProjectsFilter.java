@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import okhttp3.HttpUrl;
+
+import static java.lang.String.valueOf;
+
+/**
+ * Server side filter applied when listing projects. Note that GitLab applies these filters to the user owning the
+ * access token the projects are listed with.
+ */
+public class ProjectsFilter {
+    public static final ProjectsFilter NONE = new ProjectsFilter(false, null);
+
+    private final boolean membership;
+    private final AccessLevel minAccessLevel;
+
+    private ProjectsFilter(boolean membership, AccessLevel minAccessLevel) {
+        this.membership = membership;
+        this.minAccessLevel = minAccessLevel;
+    }
+
+    /**
+     * Only list projects the token owner is a member of, in their simplified representation.
+     *
+     * @param minAccessLevel when not null, only list projects where the token owner has at least this access level
+     */
+    public static ProjectsFilter membership(AccessLevel minAccessLevel) {
+        return new ProjectsFilter(true, minAccessLevel);
+    }
+
+    public boolean isMembership() {
+        return membership;
+    }
+
+    public AccessLevel minAccessLevel() {
+        return minAccessLevel;
+    }
+
+    void applyTo(HttpUrl.Builder url) {
+        if (!membership) {
+            return;
+        }
+
+        url.addQueryParameter("membership", "true")
+                .addQueryParameter("simple", "true");
+
+        if (minAccessLevel != null) {
+            url.addQueryParameter("min_access_level", valueOf(minAccessLevel.getValue()));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return membership ? "membership(" + minAccessLevel + ")" : "none";
+    }
+}
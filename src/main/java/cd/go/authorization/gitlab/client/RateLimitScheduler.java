@@ -0,0 +1,385 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.authorization.gitlab.client;
+
+import cd.go.authorization.gitlab.utils.Util;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static cd.go.authorization.gitlab.GitLabPlugin.LOG;
+import static cd.go.authorization.gitlab.utils.Util.daemonThreadFactory;
+import static java.text.MessageFormat.format;
+
+/**
+ * Plugin-wide scheduler of the calls made to GitLab, which keeps them within the rate limits of each GitLab server and
+ * access token.
+ * <p>
+ * GitLab reports the requests left in the current window with the `RateLimit-Remaining` and `RateLimit-Reset` headers,
+ * which this scheduler reads as an interceptor of the http client. When few are left, calls are spread over the rest
+ * of the window instead of running into the limit, and calls made in the background (refreshing cached roles and
+ * listings) leave a share of the window to logins. Calls answered with `429 Too Many Requests` wait as long as
+ * `Retry-After` asks and are retried, instead of failing the login.
+ * <p>
+ * The waiting happens before a call is handed to the http client: asynchronous calls wait for their
+ * {@link #turn(Request)} on a timer, synchronous ones on the calling thread in {@link #execute(OkHttpClient, Request)},
+ * so no thread of the http client is ever held up.
+ */
+public class RateLimitScheduler implements Interceptor {
+    static final int MAX_RETRIES = 3;
+    static final Duration MAX_INTERACTIVE_WAIT = Duration.ofSeconds(30);
+    static final Duration MAX_BACKGROUND_WAIT = Duration.ofMinutes(5);
+    static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+    // calls are paced once less than this share of the window is left
+    static final double PACING_THRESHOLD = 0.2;
+    // share of the window background calls leave to interactive ones
+    static final double INTERACTIVE_RESERVE = 0.1;
+    static final int MAX_BUDGETS = 1_000;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("gitlab-rate-limit"));
+    private static final RateLimitScheduler INSTANCE = new RateLimitScheduler(Clock.systemUTC(),
+            (task, delay) -> TIMER.schedule(task, delay, TimeUnit.MILLISECONDS), MAX_BUDGETS);
+    private static final ThreadLocal<Priority> CURRENT_PRIORITY = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+
+    private final Clock clock;
+    private final Timer timer;
+    private final Map<String, Budget> budgets;
+
+    RateLimitScheduler(Clock clock, Timer timer, int maxBudgets) {
+        this.clock = clock;
+        this.timer = timer;
+        this.budgets = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Budget> eldest) {
+                return size() > maxBudgets;
+            }
+        };
+    }
+
+    public static RateLimitScheduler instance() {
+        return INSTANCE;
+    }
+
+    public enum Priority {
+        INTERACTIVE, BACKGROUND
+    }
+
+    interface Timer {
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    /**
+     * @return the priority of the calls made by the current thread
+     */
+    public static Priority currentPriority() {
+        return CURRENT_PRIORITY.get();
+    }
+
+    /**
+     * @return the task, making its calls to GitLab with the given priority
+     */
+    public static Runnable withPriority(Priority priority, Runnable task) {
+        return () -> {
+            final Priority previous = CURRENT_PRIORITY.get();
+            CURRENT_PRIORITY.set(priority);
+            try {
+                task.run();
+            } finally {
+                CURRENT_PRIORITY.set(previous);
+            }
+        };
+    }
+
+    /**
+     * @return the task, making its calls to GitLab with the given priority
+     */
+    public static <T> Callable<T> withPriority(Priority priority, Callable<T> task) {
+        return () -> {
+            final Priority previous = CURRENT_PRIORITY.get();
+            CURRENT_PRIORITY.set(priority);
+            try {
+                return task.call();
+            } finally {
+                CURRENT_PRIORITY.set(previous);
+            }
+        };
+    }
+
+    /**
+     * @return the request, tagged with the priority of the current thread, for calls run on another thread
+     */
+    static Request tagged(Request request) {
+        return request.tag(Priority.class) != null ? request : request.newBuilder().tag(Priority.class, currentPriority()).build();
+    }
+
+    /**
+     * Only reads the rate limit headers of the response; the call has waited for its turn before it was made.
+     */
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Request request = chain.request();
+        final Response response = chain.proceed(request);
+        budget(request).update(response, clock.millis());
+        return response;
+    }
+
+    /**
+     * @return a future completed once the call may be made, on the timer, without holding up the calling thread.
+     * Calls which would wait longer than their priority allows are made anyway once that time has passed.
+     */
+    CompletableFuture<Void> turn(Request request) {
+        final CompletableFuture<Void> turn = new CompletableFuture<>();
+        awaitTurn(request, budget(request), priorityOf(request), clock.millis() + maxWait(priorityOf(request)).toMillis(), turn);
+        return turn;
+    }
+
+    /**
+     * Make the call on the calling thread once it is its turn, and again while GitLab throttles it.
+     */
+    Response execute(OkHttpClient httpClient, Request request) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            awaitTurn(request);
+            final Response response = httpClient.newCall(request).execute();
+            if (!shouldRetry(request, response, attempt)) {
+                return response;
+            }
+            response.close();
+        }
+    }
+
+    /**
+     * Wait on the calling thread until the call may be made.
+     */
+    private void awaitTurn(Request request) throws IOException {
+        final CompletableFuture<Void> turn = turn(request);
+        try {
+            turn.get();
+        } catch (InterruptedException e) {
+            turn.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted while waiting to call `{0}`.", request.url().encodedPath()));
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @param attempt the number of times the call was retried already
+     * @return whether the throttled call is to be retried, after waiting for its {@link #turn(Request)}
+     */
+    boolean shouldRetry(Request request, Response response, int attempt) {
+        if (response.code() != 429 || attempt >= MAX_RETRIES) {
+            return false;
+        }
+        final long retryAfter = budget(request).block(response, clock.millis());
+        if (retryAfter > maxWait(priorityOf(request)).toMillis()) {
+            return false;
+        }
+        LOG.warn(format("GitLab throttled a call to `{0}`, retrying in {1} ms.", request.url().encodedPath(), retryAfter));
+        return true;
+    }
+
+    private void awaitTurn(Request request, Budget budget, Priority priority, long deadline, CompletableFuture<Void> turn) {
+        if (turn.isDone()) {
+            return;
+        }
+        final long now = clock.millis();
+        final long delay = budget.delay(priority, now);
+        if (delay <= 0) {
+            turn.complete(null);
+            return;
+        }
+        if (now >= deadline) {
+            // past this point waiting costs more than risking a 429, which is retried anyway
+            budget.consume();
+            turn.complete(null);
+            return;
+        }
+        LOG.debug(format("Waiting {0} ms before calling `{1}`, to stay within the GitLab rate limit.", delay, request.url().encodedPath()));
+        timer.schedule(() -> awaitTurn(request, budget, priority, deadline, turn), Math.min(delay, deadline - now));
+    }
+
+    private static Priority priorityOf(Request request) {
+        return request.tag(Priority.class) != null ? request.tag(Priority.class) : currentPriority();
+    }
+
+    private Duration maxWait(Priority priority) {
+        return priority == Priority.BACKGROUND ? MAX_BACKGROUND_WAIT : MAX_INTERACTIVE_WAIT;
+    }
+
+    private synchronized Budget budget(Request request) {
+        return budgets.computeIfAbsent(budgetKey(request), key -> new Budget());
+    }
+
+    /**
+     * @return a key identifying the GitLab server and access token of the request, which does not contain the token
+     */
+    static String budgetKey(Request request) {
+        final HttpUrl url = request.url();
+        String token = request.header("Private-Token");
+        if (token == null) {
+            token = request.header("Authorization");
+        }
+        if (token == null) {
+            token = url.queryParameter("access_token");
+        }
+        return GitLabHttpClients.credentialsKey(url.scheme() + "://" + url.host() + ":" + url.port(), token);
+    }
+
+    synchronized int size() {
+        return budgets.size();
+    }
+
+    /**
+     * The requests left in the current rate limit window of a GitLab server and access token.
+     */
+    private static final class Budget {
+        private final long[] nextCallAt = new long[Priority.values().length];
+        private int limit = -1;
+        private int remaining = -1;
+        private long resetAt;
+        private long blockedUntil;
+
+        /**
+         * @return how long a call of the given priority must wait, zero when it can be made now (which counts it
+         * against the window)
+         */
+        synchronized long delay(Priority priority, long now) {
+            if (now < blockedUntil) {
+                return blockedUntil - now;
+            }
+            if (remaining < 0 || now >= resetAt) {
+                return 0;
+            }
+
+            final int reserve = priority == Priority.BACKGROUND ? (int) Math.ceil(limit * INTERACTIVE_RESERVE) : 0;
+            final int available = remaining - reserve;
+            if (available <= 0) {
+                return resetAt - now;
+            }
+            if (remaining > limit * PACING_THRESHOLD) {
+                remaining--;
+                return 0;
+            }
+
+            final long nextCall = nextCallAt[priority.ordinal()];
+            if (nextCall > now) {
+                return nextCall - now;
+            }
+            nextCallAt[priority.ordinal()] = now + (resetAt - now) / available;
+            remaining--;
+            return 0;
+        }
+
+        synchronized void consume() {
+            if (remaining > 0) {
+                remaining--;
+            }
+        }
+
+        synchronized void update(Response response, long now) {
+            final int reportedLimit = intHeader(response, "RateLimit-Limit");
+            final int reportedRemaining = intHeader(response, "RateLimit-Remaining");
+            final long reportedReset = resetHeader(response, now);
+            if (reportedRemaining >= 0 && reportedReset > now) {
+                remaining = reportedRemaining;
+                resetAt = reportedReset;
+                limit = Math.max(reportedLimit, Math.max(limit, reportedRemaining + 1));
+            }
+
+            if (response.code() == 429) {
+                block(response, now);
+            }
+        }
+
+        /**
+         * Hold back the calls of this budget as long as the throttled response asks.
+         *
+         * @return how long to wait before retrying the throttled call
+         */
+        synchronized long block(Response response, long now) {
+            long retryAfter = retryAfter(response, now);
+            if (retryAfter < 0) {
+                retryAfter = resetAt > now ? resetAt - now : DEFAULT_RETRY_AFTER.toMillis();
+            }
+            blockedUntil = Math.max(blockedUntil, now + retryAfter);
+            return retryAfter;
+        }
+
+        private static int intHeader(Response response, String name) {
+            final String value = response.header(name);
+            if (Util.isBlank(value)) {
+                return -1;
+            }
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * GitLab sends the end of the window as unix time; a small value is taken as seconds from now, as sent by
+         * proxies implementing the IETF draft.
+         */
+        private static long resetHeader(Response response, long now) {
+            final int reset = intHeader(response, "RateLimit-Reset");
+            if (reset < 0) {
+                return -1;
+            }
+            return reset < 1_000_000_000L ? now + reset * 1000L : reset * 1000L;
+        }
+
+        /**
+         * @return the delay asked for by `Retry-After`, given in seconds or as an http date, or -1 when there is none
+         */
+        private static long retryAfter(Response response, long now) {
+            final String value = response.header("Retry-After");
+            if (Util.isBlank(value)) {
+                return -1;
+            }
+            try {
+                return Math.max(0, Long.parseLong(value.trim()) * 1000L);
+            } catch (NumberFormatException e) {
+                try {
+                    return Math.max(0, ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - now);
+                } catch (DateTimeParseException ignored) {
+                    return -1;
+                }
+            }
+        }
+    }
+}
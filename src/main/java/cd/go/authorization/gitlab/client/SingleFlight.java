@@ -0,0 +1,226 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.authorization.gitlab.client;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Plugin-wide registry of GitLab calls in flight. After a restart or a deploy, GoCD asks for the roles of many users
+ * at once, and all of them list the same groups and projects and look up the same members with the same access token.
+ * A call made while an identical one (same url and token) is still in flight waits for that one and shares its parsed
+ * result, instead of calling GitLab again.
+ */
+class SingleFlight {
+    private static final SingleFlight INSTANCE = new SingleFlight();
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+
+    static SingleFlight instance() {
+        return INSTANCE;
+    }
+
+    interface Call<T> {
+        T execute() throws IOException;
+    }
+
+    /**
+     * Make the call on the calling thread, or wait for the identical call in flight.
+     *
+     * @param onShared run when the result of an identical call in flight is shared instead of making the call
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(String key, Call<T> call, Runnable onShared) throws IOException {
+        final Flight flight = new Flight(key);
+        flight.join();
+        final Flight inFlight = flights.putIfAbsent(key, flight);
+        if (inFlight != null && inFlight.join()) {
+            shared(onShared);
+            try {
+                return (T) await(inFlight);
+            } finally {
+                inFlight.leave();
+            }
+        }
+        if (inFlight != null) {
+            flights.remove(key, inFlight);
+            return execute(key, call, onShared);
+        }
+
+        try {
+            final T result = call.execute();
+            flights.remove(key, flight);
+            flight.result.complete(result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flight.leave();
+        }
+    }
+
+    /**
+     * Start the call, or share the identical call in flight. The call itself is only cancelled once every caller
+     * sharing it has cancelled its future.
+     *
+     * @param onShared run when the result of an identical call in flight is shared instead of starting the call
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> call, Runnable onShared) {
+        final Flight flight = new Flight(key);
+        flight.join();
+        final Flight inFlight = flights.putIfAbsent(key, flight);
+        if (inFlight != null && inFlight.join()) {
+            shared(onShared);
+            return (CompletableFuture<T>) inFlight.waiter();
+        }
+        if (inFlight != null) {
+            flights.remove(key, inFlight);
+            return executeAsync(key, call, onShared);
+        }
+
+        final CompletableFuture<T> waiter = (CompletableFuture<T>) flight.waiter();
+        final CompletableFuture<T> started = call.get();
+        flight.started(started);
+        started.whenComplete((result, e) -> {
+            flights.remove(key, flight);
+            if (e != null) {
+                flight.result.completeExceptionally(e);
+            } else {
+                flight.result.complete(result);
+            }
+        });
+        return waiter;
+    }
+
+    /**
+     * @return the number of calls which shared the result of an identical call in flight, since the plugin was started
+     */
+    long coalescedCalls() {
+        return coalescedCalls.get();
+    }
+
+    int size() {
+        return flights.size();
+    }
+
+    /**
+     * @return the number of callers waiting for the call in flight with the given key
+     */
+    int waiters(String key) {
+        final Flight flight = flights.get(key);
+        if (flight == null) {
+            return 0;
+        }
+        synchronized (flight) {
+            return flight.waiters;
+        }
+    }
+
+    private void shared(Runnable onShared) {
+        coalescedCalls.incrementAndGet();
+        onShared.run();
+    }
+
+    private Object await(Flight flight) throws IOException {
+        try {
+            return flight.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(format("Interrupted while waiting for `{0}`.", flight.key), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * An identical call in flight, and the callers still waiting for its result. Every caller joins the flight and
+     * leaves it once it has the result or has given up on it; when the last caller gives up before the result is
+     * there, the call is cancelled.
+     */
+    private final class Flight {
+        private final String key;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private CompletableFuture<?> call;
+        private int waiters;
+        private boolean abandoned;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return false when every caller has given up on this flight, so it must not be shared anymore
+         */
+        private synchronized boolean join() {
+            if (abandoned) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        private synchronized void started(CompletableFuture<?> call) {
+            this.call = call;
+            if (abandoned) {
+                call.cancel(true);
+            }
+        }
+
+        /**
+         * @return a future of the result which can be cancelled on its own
+         */
+        private CompletableFuture<Object> waiter() {
+            final CompletableFuture<Object> waiter = result.copy();
+            waiter.whenComplete((ignored, e) -> leave());
+            return waiter;
+        }
+
+        private void leave() {
+            final CompletableFuture<?> toCancel;
+            synchronized (this) {
+                waiters--;
+                if (waiters > 0 || result.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                toCancel = call;
+            }
+            flights.remove(key, this);
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+        }
+    }
+}
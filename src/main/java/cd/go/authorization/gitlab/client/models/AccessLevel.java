@@ -19,6 +19,9 @@ package cd.go.authorization.gitlab.client.models;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 
+import java.util.Collection;
+import java.util.EnumSet;
+
 public enum AccessLevel {
     @Expose
     @SerializedName("10")
@@ -41,4 +44,54 @@ public enum AccessLevel {
     AccessLevel(int value) {
         this.value = value;
     }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @return the access level with the given numeric value, or null when there is none.
+     */
+    public static AccessLevel fromValue(int value) {
+        for (AccessLevel accessLevel : values()) {
+            if (accessLevel.value == value) {
+                return accessLevel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the access level with the given (case-insensitive) name, or null when there is none.
+     */
+    public static AccessLevel fromName(String name) {
+        for (AccessLevel accessLevel : values()) {
+            if (accessLevel.name().equalsIgnoreCase(name)) {
+                return accessLevel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the access levels named in a role configuration, where a name ending with `+` (e.g. `developer+`) stands
+     * for that access level and all higher ones. Unknown names are ignored.
+     */
+    public static EnumSet<AccessLevel> fromNames(Collection<String> names) {
+        final EnumSet<AccessLevel> accessLevels = EnumSet.noneOf(AccessLevel.class);
+        for (String name : names) {
+            if (name.endsWith("+")) {
+                final AccessLevel minimum = fromName(name.substring(0, name.length() - 1).trim());
+                if (minimum != null) {
+                    accessLevels.addAll(EnumSet.range(minimum, OWNER));
+                }
+                continue;
+            }
+            final AccessLevel accessLevel = fromName(name);
+            if (accessLevel != null) {
+                accessLevels.add(accessLevel);
+            }
+        }
+        return accessLevels;
+    }
 }
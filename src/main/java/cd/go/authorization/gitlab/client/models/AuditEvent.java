@@ -0,0 +1,191 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client.models;
+
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static cd.go.authorization.gitlab.utils.Util.forEachInJSONArray;
+
+/**
+ * An entry of the audit events of a group or project. Only membership changes are modelled; the details of other
+ * events are ignored.
+ */
+public class AuditEvent {
+    private static final String USER_ACCESS = "user_access";
+    private static final String ACCESS_LEVEL = "access_level";
+
+    @Expose
+    @SerializedName("id")
+    private long id;
+    @Expose
+    @SerializedName("created_at")
+    private String createdAt;
+    @Expose
+    @SerializedName("details")
+    private Details details;
+
+    AuditEvent() {
+    }
+
+    public AuditEvent(long id, Details details) {
+        this(id, null, details);
+    }
+
+    public AuditEvent(long id, String createdAt, Details details) {
+        this.id = id;
+        this.createdAt = createdAt;
+        this.details = details;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the time the event was recorded at, by the clock of GitLab, or null when it is missing or malformed.
+     */
+    public Instant getCreatedAtInstant() {
+        if (createdAt == null) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(createdAt).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    public boolean isMemberAdded() {
+        return details != null && USER_ACCESS.equals(details.add);
+    }
+
+    public boolean isMemberRemoved() {
+        return details != null && USER_ACCESS.equals(details.remove);
+    }
+
+    public boolean isAccessLevelChanged() {
+        return details != null && ACCESS_LEVEL.equals(details.change);
+    }
+
+    public boolean isMembershipChange() {
+        return isMemberAdded() || isMemberRemoved() || isAccessLevelChanged();
+    }
+
+    /**
+     * @return the id of the user whose membership changed, or null when the event does not say.
+     */
+    public Long getMemberId() {
+        return details == null ? null : details.targetId;
+    }
+
+    /**
+     * @return the access level a member was added with or changed to, or null when it is not one of the standard
+     * access levels (e.g. a custom role).
+     */
+    public AccessLevel getAccessLevel() {
+        if (details == null) {
+            return null;
+        }
+        return accessLevel(isAccessLevelChanged() ? details.to : details.as);
+    }
+
+    /**
+     * Audit events name roles the way GitLab displays them (e.g. `Maintainer`, `Default role: Developer`).
+     */
+    private static AccessLevel accessLevel(String role) {
+        if (role == null) {
+            return null;
+        }
+        final String name = role.substring(role.lastIndexOf(':') + 1).trim();
+        return "maintainer".equalsIgnoreCase(name) ? AccessLevel.MASTER : AccessLevel.fromName(name);
+    }
+
+    public static List<AuditEvent> fromJSONArray(Reader reader) throws IOException {
+        final List<AuditEvent> list = new ArrayList<>();
+        forEachInJSONArray(reader, AuditEvent.class, list::add);
+        return list;
+    }
+
+    public String toJSON() {
+        return GSON.toJson(this);
+    }
+
+    public static class Details {
+        @Expose
+        @SerializedName("add")
+        private String add;
+        @Expose
+        @SerializedName("remove")
+        private String remove;
+        @Expose
+        @SerializedName("change")
+        private String change;
+        @Expose
+        @SerializedName("as")
+        private String as;
+        @Expose
+        @SerializedName("from")
+        private String from;
+        @Expose
+        @SerializedName("to")
+        private String to;
+        @Expose
+        @SerializedName("target_id")
+        private Long targetId;
+
+        Details() {
+        }
+
+        public static Details memberAdded(long userId, String role) {
+            final Details details = new Details();
+            details.add = USER_ACCESS;
+            details.as = role;
+            details.targetId = userId;
+            return details;
+        }
+
+        public static Details memberRemoved(long userId) {
+            final Details details = new Details();
+            details.remove = USER_ACCESS;
+            details.targetId = userId;
+            return details;
+        }
+
+        public static Details accessLevelChanged(long userId, String from, String to) {
+            final Details details = new Details();
+            details.change = ACCESS_LEVEL;
+            details.from = from;
+            details.to = to;
+            details.targetId = userId;
+            return details;
+        }
+    }
+}
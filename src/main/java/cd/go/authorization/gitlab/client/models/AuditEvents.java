@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client.models;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of audit events, with the time GitLab answered at. Times are GitLab's, which can differ from the clock of the
+ * plugin, so the events are complete up to a time of GitLab's own.
+ */
+public class AuditEvents {
+    private final List<AuditEvent> events;
+    private final Instant date;
+
+    /**
+     * @param date the `Date` header of the response, null when there is none.
+     */
+    public AuditEvents(List<AuditEvent> events, Instant date) {
+        this.events = Collections.unmodifiableList(events);
+        this.date = date;
+    }
+
+    public List<AuditEvent> events() {
+        return events;
+    }
+
+    /**
+     * @return the GitLab time the events are complete up to: the creation time of the newest event, or the time of the
+     * response when there are no events. Null when neither is known.
+     */
+    public Instant until() {
+        Instant until = null;
+        for (AuditEvent event : events) {
+            final Instant createdAt = event.getCreatedAtInstant();
+            if (createdAt != null && (until == null || createdAt.isAfter(until))) {
+                until = createdAt;
+            }
+        }
+        return until != null ? until : date;
+    }
+}
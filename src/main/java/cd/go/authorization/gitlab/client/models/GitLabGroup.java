@@ -20,10 +20,14 @@ import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
 
 import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static cd.go.authorization.gitlab.utils.Util.forEachInJSONArray;
 
 public class GitLabGroup {
     @Expose
@@ -121,4 +125,10 @@ public class GitLabGroup {
         }.getType();
         return GSON.fromJson(json, type);
     }
+
+    public static List<GitLabGroup> fromJSONArray(Reader reader) throws IOException {
+        final List<GitLabGroup> list = new ArrayList<>();
+        forEachInJSONArray(reader, GitLabGroup.class, list::add);
+        return list;
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client.models;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static cd.go.authorization.gitlab.utils.Util.forEachInJSONArray;
+
+/**
+ * Projection of a GitLab group holding only what authorization needs. Every other attribute in the api response is
+ * skipped while decoding, see {@link GitLabGroup} for the complete model.
+ */
+@JsonAdapter(GitLabGroupSummary.Adapter.class)
+public class GitLabGroupSummary {
+    private final long id;
+    private final String name;
+    private final String fullPath;
+
+    public GitLabGroupSummary(long id, String name) {
+        this(id, name, null);
+    }
+
+    public GitLabGroupSummary(long id, String name, String fullPath) {
+        this.id = id;
+        this.name = name;
+        this.fullPath = fullPath;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getFullPath() {
+        return fullPath;
+    }
+
+    public static GitLabGroupSummary fromJSON(Reader reader) {
+        return GSON.fromJson(reader, GitLabGroupSummary.class);
+    }
+
+    public static List<GitLabGroupSummary> fromJSONArray(Reader reader) throws IOException {
+        final List<GitLabGroupSummary> list = new ArrayList<>();
+        forEachInJSONArray(reader, GitLabGroupSummary.class, list::add);
+        return list;
+    }
+
+    static class Adapter extends TypeAdapter<GitLabGroupSummary> {
+        @Override
+        public void write(JsonWriter out, GitLabGroupSummary value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("name").value(value.name);
+            out.name("full_path").value(value.fullPath);
+            out.endObject();
+        }
+
+        @Override
+        public GitLabGroupSummary read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            long id = 0;
+            String name = null;
+            String fullPath = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                final String field = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (field) {
+                    case "id":
+                        id = in.nextLong();
+                        break;
+                    case "name":
+                        name = in.nextString();
+                        break;
+                    case "full_path":
+                        fullPath = in.nextString();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new GitLabGroupSummary(id, name, fullPath);
+        }
+    }
+}
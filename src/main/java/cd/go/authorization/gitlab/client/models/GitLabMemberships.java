@@ -0,0 +1,43 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client.models;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Direct memberships of a user on groups and projects, keyed by their full path. A path maps to null when the group or
+ * project is visible to the access token, but the user is not a member of it. Paths which are not visible to the
+ * access token (or do not exist) are left out.
+ */
+public class GitLabMemberships {
+    private final Map<String, AccessLevel> groups;
+    private final Map<String, AccessLevel> projects;
+
+    public GitLabMemberships(Map<String, AccessLevel> groups, Map<String, AccessLevel> projects) {
+        this.groups = Collections.unmodifiableMap(groups);
+        this.projects = Collections.unmodifiableMap(projects);
+    }
+
+    public Map<String, AccessLevel> groups() {
+        return groups;
+    }
+
+    public Map<String, AccessLevel> projects() {
+        return projects;
+    }
+}
@@ -20,10 +20,14 @@ import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
 
 import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static cd.go.authorization.gitlab.utils.Util.forEachInJSONArray;
 
 public class GitLabProject {
 
@@ -325,5 +329,10 @@ public class GitLabProject {
         }.getType();
         return GSON.fromJson(json, type);
     }
-}
 
+    public static List<GitLabProject> fromJSONArray(Reader reader) throws IOException {
+        final List<GitLabProject> list = new ArrayList<>();
+        forEachInJSONArray(reader, GitLabProject.class, list::add);
+        return list;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client.models;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static cd.go.authorization.gitlab.utils.Util.forEachInJSONArray;
+
+/**
+ * Projection of a GitLab project holding only what authorization needs. Every other attribute in the api response is
+ * skipped while decoding, see {@link GitLabProject} for the complete model.
+ * <p>
+ * Project listings (unless requested with `simple=true`) carry a `permissions` block with the access level of the user
+ * owning the access token the projects were listed with. Only the direct project access is kept, which matches what
+ * the project member api reports.
+ */
+@JsonAdapter(GitLabProjectSummary.Adapter.class)
+public class GitLabProjectSummary {
+    private final long id;
+    private final String name;
+    private final String fullPath;
+    private final boolean hasPermissions;
+    private final AccessLevel projectAccessLevel;
+
+    public GitLabProjectSummary(long id, String name) {
+        this(id, name, null);
+    }
+
+    public GitLabProjectSummary(long id, String name, String fullPath) {
+        this(id, name, fullPath, false, null);
+    }
+
+    public GitLabProjectSummary(long id, String name, String fullPath, boolean hasPermissions, AccessLevel projectAccessLevel) {
+        this.id = id;
+        this.name = name;
+        this.fullPath = fullPath;
+        this.hasPermissions = hasPermissions;
+        this.projectAccessLevel = projectAccessLevel;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getFullPath() {
+        return fullPath;
+    }
+
+    /**
+     * @return true when the listing contained the permissions of the access token user for this project.
+     */
+    public boolean hasPermissions() {
+        return hasPermissions;
+    }
+
+    /**
+     * @return the direct project access level of the access token user, or null when it is not a direct member.
+     */
+    public AccessLevel getProjectAccessLevel() {
+        return projectAccessLevel;
+    }
+
+    public static GitLabProjectSummary fromJSON(Reader reader) {
+        return GSON.fromJson(reader, GitLabProjectSummary.class);
+    }
+
+    public static List<GitLabProjectSummary> fromJSONArray(Reader reader) throws IOException {
+        final List<GitLabProjectSummary> list = new ArrayList<>();
+        forEachInJSONArray(reader, GitLabProjectSummary.class, list::add);
+        return list;
+    }
+
+    static class Adapter extends TypeAdapter<GitLabProjectSummary> {
+        @Override
+        public void write(JsonWriter out, GitLabProjectSummary value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("name").value(value.name);
+            out.name("path_with_namespace").value(value.fullPath);
+            if (value.hasPermissions) {
+                out.name("permissions").beginObject().name("project_access");
+                if (value.projectAccessLevel == null) {
+                    out.nullValue();
+                } else {
+                    out.beginObject().name("access_level").value(value.projectAccessLevel.getValue()).endObject();
+                }
+                out.endObject();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public GitLabProjectSummary read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            long id = 0;
+            String name = null;
+            String fullPath = null;
+            boolean hasPermissions = false;
+            AccessLevel projectAccessLevel = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                final String field = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (field) {
+                    case "id":
+                        id = in.nextLong();
+                        break;
+                    case "name":
+                        name = in.nextString();
+                        break;
+                    case "path_with_namespace":
+                        fullPath = in.nextString();
+                        break;
+                    case "permissions":
+                        hasPermissions = true;
+                        projectAccessLevel = readProjectAccessLevel(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new GitLabProjectSummary(id, name, fullPath, hasPermissions, projectAccessLevel);
+        }
+
+        private AccessLevel readProjectAccessLevel(JsonReader in) throws IOException {
+            AccessLevel accessLevel = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("project_access") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        if (in.nextName().equals("access_level") && in.peek() == JsonToken.NUMBER) {
+                            accessLevel = AccessLevel.fromValue(in.nextInt());
+                        } else {
+                            in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return accessLevel;
+        }
+    }
+}
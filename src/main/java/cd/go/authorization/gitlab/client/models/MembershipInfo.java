@@ -19,7 +19,13 @@ package cd.go.authorization.gitlab.client.models;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
 import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static cd.go.authorization.gitlab.utils.Util.forEachInJSONArray;
 
 public class MembershipInfo {
     @Expose
@@ -50,6 +56,13 @@ public class MembershipInfo {
         this.accessLevel = accessLevel;
     }
 
+    /**
+     * @return the membership of a user who is not a member, which has no access level.
+     */
+    public static MembershipInfo notAMember(long id) {
+        return new MembershipInfo(id, null, null);
+    }
+
     public long getId() {
         return id;
     }
@@ -78,6 +91,12 @@ public class MembershipInfo {
         return GSON.fromJson(json, MembershipInfo.class);
     }
 
+    public static List<MembershipInfo> fromJSONArray(Reader reader) throws IOException {
+        final List<MembershipInfo> list = new ArrayList<>();
+        forEachInJSONArray(reader, MembershipInfo.class, list::add);
+        return list;
+    }
+
     public String toJSON() {
         return GSON.toJson(this);
     }
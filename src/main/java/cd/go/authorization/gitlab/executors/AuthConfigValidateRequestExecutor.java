@@ -42,6 +42,46 @@ public class AuthConfigValidateRequestExecutor implements RequestExecutor {
             validationResult.addError("GitLabEnterpriseUrl", "GitLabEnterpriseUrl must not be blank.");
         }
 
+        if (!gitLabConfiguration.isValidPageSize()) {
+            validationResult.addError("PageSize", "PageSize must be a number between 1 and " + GitLabConfiguration.MAX_PAGE_SIZE + ".");
+        }
+
+        if (!gitLabConfiguration.isValidRolesCacheTTLInSeconds()) {
+            validationResult.addError("RolesCacheTTLInSeconds", "RolesCacheTTLInSeconds must be a number of seconds, 0 to disable caching.");
+        }
+
+        if (!gitLabConfiguration.isValidRolesCacheRefreshAfterSeconds()) {
+            validationResult.addError("RolesCacheRefreshAfterSeconds", "RolesCacheRefreshAfterSeconds must be a number of seconds, less than RolesCacheTTLInSeconds.");
+        }
+
+        if (!gitLabConfiguration.isValidRolesCacheMaxSize()) {
+            validationResult.addError("RolesCacheMaxSize", "RolesCacheMaxSize must be a positive number.");
+        }
+
+        if (!gitLabConfiguration.isValidCatalogRefreshIntervalInSeconds()) {
+            validationResult.addError("CatalogRefreshIntervalInSeconds", "CatalogRefreshIntervalInSeconds must be a number of seconds, 0 to disable the catalog.");
+        }
+
+        if (!gitLabConfiguration.isValidMemberIndexRefreshIntervalInSeconds()) {
+            validationResult.addError("MemberIndexRefreshIntervalInSeconds", "MemberIndexRefreshIntervalInSeconds must be a number of seconds, 0 to disable the member index.");
+        }
+
+        if (!gitLabConfiguration.isValidMemberIndexSyncIntervalInSeconds()) {
+            validationResult.addError("MemberIndexSyncIntervalInSeconds", "MemberIndexSyncIntervalInSeconds must be a number of seconds, less than MemberIndexRefreshIntervalInSeconds.");
+        }
+
+        if (!gitLabConfiguration.isValidMembershipCacheTTLInSeconds()) {
+            validationResult.addError("MembershipCacheTTLInSeconds", "MembershipCacheTTLInSeconds must be a number of seconds, 0 to disable caching memberships.");
+        }
+
+        if (!gitLabConfiguration.isValidNonMembershipCacheTTLInSeconds()) {
+            validationResult.addError("NonMembershipCacheTTLInSeconds", "NonMembershipCacheTTLInSeconds must be a number of seconds, less than MembershipCacheTTLInSeconds.");
+        }
+
+        if (!gitLabConfiguration.isValidConcurrentMemberLookups()) {
+            validationResult.addError("ConcurrentMemberLookups", "ConcurrentMemberLookups must be a number between 1 and " + GitLabConfiguration.MAX_CONCURRENT_MEMBER_LOOKUPS + ".");
+        }
+
         return DefaultGoPluginApiResponse.success(validationResult.toJSON());
     }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.models;
+
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+
+import java.util.*;
+
+import static cd.go.authorization.gitlab.utils.Util.*;
+
+/**
+ * Parsed form of a {@link GitLabRoleConfiguration}. Immutable, so it can be shared between all requests using a role
+ * configuration with the same content.
+ */
+public final class CompiledRoleConfiguration {
+    private final Set<String> users;
+    private final Map<String, List<String>> groups;
+    private final Map<String, List<String>> projects;
+    private final Map<String, Set<AccessLevel>> groupAccessLevels;
+    private final Map<String, Set<AccessLevel>> projectAccessLevels;
+
+    CompiledRoleConfiguration(String groups, String projects, String users) {
+        this.users = Collections.unmodifiableSet(new HashSet<>(listFromCommaSeparatedString(users)));
+        this.groups = toMap(groups);
+        this.projects = toMap(projects);
+        this.groupAccessLevels = toAccessLevels(this.groups);
+        this.projectAccessLevels = toAccessLevels(this.projects);
+    }
+
+    public Set<String> users() {
+        return users;
+    }
+
+    /**
+     * @return the access levels of each group, lowercased, as written in the role configuration.
+     */
+    public Map<String, List<String>> groups() {
+        return groups;
+    }
+
+    /**
+     * @return the access levels of each project, lowercased, as written in the role configuration.
+     */
+    public Map<String, List<String>> projects() {
+        return projects;
+    }
+
+    /**
+     * @return the access levels required on each group, with minimum levels like `developer+` expanded; empty when any
+     * membership is accepted, or when none of the access levels is known.
+     */
+    public Map<String, Set<AccessLevel>> groupAccessLevels() {
+        return groupAccessLevels;
+    }
+
+    /**
+     * @return the access levels required on each project.
+     * @see #groupAccessLevels()
+     */
+    public Map<String, Set<AccessLevel>> projectAccessLevels() {
+        return projectAccessLevels;
+    }
+
+    private static Map<String, List<String>> toMap(String string) {
+        final Map<String, List<String>> map = new HashMap<>();
+        splitIntoLinesAndTrimSpaces(string).forEach(line -> {
+            if (line.contains(":")) {
+                final String[] parts = line.split(":", 2);
+                map.put(parts[0], listFromCommaSeparatedString(toLowerCase(parts[1])));
+            } else {
+                map.put(line, Collections.emptyList());
+            }
+        });
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static Map<String, Set<AccessLevel>> toAccessLevels(Map<String, List<String>> entries) {
+        final Map<String, Set<AccessLevel>> map = new HashMap<>();
+        entries.forEach((name, accessLevelNames) -> map.put(name, Collections.unmodifiableSet(AccessLevel.fromNames(accessLevelNames))));
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -19,6 +19,7 @@ package cd.go.authorization.gitlab.models;
 import cd.go.authorization.gitlab.annotation.ProfileField;
 import cd.go.authorization.gitlab.annotation.Validatable;
 import cd.go.authorization.gitlab.client.GitLabClient;
+import cd.go.authorization.gitlab.client.GitLabGraphQLClient;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
@@ -28,10 +29,15 @@ import java.util.List;
 import java.util.Map;
 
 import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static cd.go.authorization.gitlab.utils.Util.isBlank;
 
 public class GitLabConfiguration implements Validatable {
     public static final String GITLAB_URL = "https://gitlab.com";
     public static final String DEFAULT_SCOPES = "api";
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 100;
+    public static final int DEFAULT_ROLES_CACHE_MAX_SIZE = 10_000;
+    public static final int MAX_CONCURRENT_MEMBER_LOOKUPS = 16;
 
     @Expose
     @SerializedName("ApplicationId")
@@ -63,7 +69,78 @@ public class GitLabConfiguration implements Validatable {
     @ProfileField(key = "PersonalAccessToken", required = false, secure = true)
     private String personalAccessToken;
 
+    @Expose
+    @SerializedName("PageSize")
+    @ProfileField(key = "PageSize", required = false, secure = false)
+    private String pageSize;
+
+    @Expose
+    @SerializedName("KeysetPagination")
+    @ProfileField(key = "KeysetPagination", required = false, secure = false)
+    private String keysetPagination;
+
+    @Expose
+    @SerializedName("FilterProjectsByMembership")
+    @ProfileField(key = "FilterProjectsByMembership", required = false, secure = false)
+    private String filterProjectsByMembership;
+
+    @Expose
+    @SerializedName("LookupByPath")
+    @ProfileField(key = "LookupByPath", required = false, secure = false)
+    private String lookupByPath;
+
+    @Expose
+    @SerializedName("UseGraphQL")
+    @ProfileField(key = "UseGraphQL", required = false, secure = false)
+    private String useGraphQL;
+
+    @Expose
+    @SerializedName("RolesCacheTTLInSeconds")
+    @ProfileField(key = "RolesCacheTTLInSeconds", required = false, secure = false)
+    private String rolesCacheTTLInSeconds;
+
+    @Expose
+    @SerializedName("RolesCacheMaxSize")
+    @ProfileField(key = "RolesCacheMaxSize", required = false, secure = false)
+    private String rolesCacheMaxSize;
+
+    @Expose
+    @SerializedName("RolesCacheRefreshAfterSeconds")
+    @ProfileField(key = "RolesCacheRefreshAfterSeconds", required = false, secure = false)
+    private String rolesCacheRefreshAfterSeconds;
+
+    @Expose
+    @SerializedName("CatalogRefreshIntervalInSeconds")
+    @ProfileField(key = "CatalogRefreshIntervalInSeconds", required = false, secure = false)
+    private String catalogRefreshIntervalInSeconds;
+
+    @Expose
+    @SerializedName("MemberIndexRefreshIntervalInSeconds")
+    @ProfileField(key = "MemberIndexRefreshIntervalInSeconds", required = false, secure = false)
+    private String memberIndexRefreshIntervalInSeconds;
+
+    @Expose
+    @SerializedName("MemberIndexSyncIntervalInSeconds")
+    @ProfileField(key = "MemberIndexSyncIntervalInSeconds", required = false, secure = false)
+    private String memberIndexSyncIntervalInSeconds;
+
+    @Expose
+    @SerializedName("MembershipCacheTTLInSeconds")
+    @ProfileField(key = "MembershipCacheTTLInSeconds", required = false, secure = false)
+    private String membershipCacheTTLInSeconds;
+
+    @Expose
+    @SerializedName("NonMembershipCacheTTLInSeconds")
+    @ProfileField(key = "NonMembershipCacheTTLInSeconds", required = false, secure = false)
+    private String nonMembershipCacheTTLInSeconds;
+
+    @Expose
+    @SerializedName("ConcurrentMemberLookups")
+    @ProfileField(key = "ConcurrentMemberLookups", required = false, secure = false)
+    private String concurrentMemberLookups;
+
     private GitLabClient gitLabClient;
+    private GitLabGraphQLClient gitLabGraphQLClient;
 
     public GitLabConfiguration() {
     }
@@ -97,6 +174,173 @@ public class GitLabConfiguration implements Validatable {
         return Arrays.stream(clientScopesRequested.split("[ ,]")).filter(b -> !b.isBlank()).toList();
     }
 
+    public int pageSize() {
+        if (isBlank(pageSize)) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        try {
+            return Integer.parseInt(pageSize.trim());
+        } catch (NumberFormatException e) {
+            return DEFAULT_PAGE_SIZE;
+        }
+    }
+
+    public boolean isValidPageSize() {
+        if (isBlank(pageSize)) {
+            return true;
+        }
+        try {
+            final int size = Integer.parseInt(pageSize.trim());
+            return size > 0 && size <= MAX_PAGE_SIZE;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public boolean keysetPagination() {
+        return Boolean.parseBoolean(keysetPagination);
+    }
+
+    public boolean filterProjectsByMembership() {
+        return Boolean.parseBoolean(filterProjectsByMembership);
+    }
+
+    public boolean lookupByPath() {
+        return Boolean.parseBoolean(lookupByPath);
+    }
+
+    public boolean useGraphQL() {
+        return Boolean.parseBoolean(useGraphQL);
+    }
+
+    /**
+     * @return how long role assignments of a user are cached, 0 when they are not cached.
+     */
+    public long rolesCacheTTLInSeconds() {
+        return nonNegativeLong(rolesCacheTTLInSeconds, 0);
+    }
+
+    public boolean isValidRolesCacheTTLInSeconds() {
+        return isNonNegativeLong(rolesCacheTTLInSeconds);
+    }
+
+    /**
+     * @return age after which cached roles are refreshed in the background while still being used, 0 when they are
+     * only reloaded once they expire.
+     */
+    public long rolesCacheRefreshAfterSeconds() {
+        return nonNegativeLong(rolesCacheRefreshAfterSeconds, 0);
+    }
+
+    public boolean isValidRolesCacheRefreshAfterSeconds() {
+        final long refreshAfter = rolesCacheRefreshAfterSeconds();
+        return isNonNegativeLong(rolesCacheRefreshAfterSeconds) && (refreshAfter == 0 || refreshAfter < rolesCacheTTLInSeconds());
+    }
+
+    /**
+     * @return how often the shared listings of groups and projects visible to the access token are refreshed, 0 when
+     * they are listed again for every authorization.
+     */
+    public long catalogRefreshIntervalInSeconds() {
+        return nonNegativeLong(catalogRefreshIntervalInSeconds, 0);
+    }
+
+    public boolean isValidCatalogRefreshIntervalInSeconds() {
+        return isNonNegativeLong(catalogRefreshIntervalInSeconds);
+    }
+
+    /**
+     * @return how often the indexed members of groups and projects are refreshed, 0 when members are looked up for
+     * every authorization.
+     */
+    public long memberIndexRefreshIntervalInSeconds() {
+        return nonNegativeLong(memberIndexRefreshIntervalInSeconds, 0);
+    }
+
+    public boolean isValidMemberIndexRefreshIntervalInSeconds() {
+        return isNonNegativeLong(memberIndexRefreshIntervalInSeconds);
+    }
+
+    /**
+     * @return how often indexed members are brought up to date from the audit events of their group or project, 0
+     * when they are only refreshed by listing them again.
+     */
+    public long memberIndexSyncIntervalInSeconds() {
+        return nonNegativeLong(memberIndexSyncIntervalInSeconds, 0);
+    }
+
+    public boolean isValidMemberIndexSyncIntervalInSeconds() {
+        final long syncInterval = memberIndexSyncIntervalInSeconds();
+        return isNonNegativeLong(memberIndexSyncIntervalInSeconds) && (syncInterval == 0 || syncInterval < memberIndexRefreshIntervalInSeconds());
+    }
+
+    /**
+     * @return how long a user found to be a member of a group or project is cached, 0 when not cached.
+     */
+    public long membershipCacheTTLInSeconds() {
+        return nonNegativeLong(membershipCacheTTLInSeconds, 0);
+    }
+
+    public boolean isValidMembershipCacheTTLInSeconds() {
+        return isNonNegativeLong(membershipCacheTTLInSeconds);
+    }
+
+    /**
+     * @return how long a user found not to be a member of a group or project is cached, 0 when not cached.
+     */
+    public long nonMembershipCacheTTLInSeconds() {
+        return nonNegativeLong(nonMembershipCacheTTLInSeconds, 0);
+    }
+
+    public boolean isValidNonMembershipCacheTTLInSeconds() {
+        final long ttl = nonMembershipCacheTTLInSeconds();
+        return isNonNegativeLong(nonMembershipCacheTTLInSeconds) && (ttl == 0 || membershipCacheTTLInSeconds() == 0 || ttl < membershipCacheTTLInSeconds());
+    }
+
+    /**
+     * @return how many member api calls may be made at once to the GitLab server, 1 when they are made one by one.
+     */
+    public int concurrentMemberLookups() {
+        return (int) Math.min(MAX_CONCURRENT_MEMBER_LOOKUPS, Math.max(1, nonNegativeLong(concurrentMemberLookups, 1)));
+    }
+
+    public boolean isValidConcurrentMemberLookups() {
+        final long concurrency = nonNegativeLong(concurrentMemberLookups, 1);
+        return isNonNegativeLong(concurrentMemberLookups) && concurrency > 0 && concurrency <= MAX_CONCURRENT_MEMBER_LOOKUPS;
+    }
+
+    public int rolesCacheMaxSize() {
+        final long maxSize = nonNegativeLong(rolesCacheMaxSize, DEFAULT_ROLES_CACHE_MAX_SIZE);
+        return maxSize > 0 && maxSize <= Integer.MAX_VALUE ? (int) maxSize : DEFAULT_ROLES_CACHE_MAX_SIZE;
+    }
+
+    public boolean isValidRolesCacheMaxSize() {
+        final long maxSize = nonNegativeLong(rolesCacheMaxSize, DEFAULT_ROLES_CACHE_MAX_SIZE);
+        return isNonNegativeLong(rolesCacheMaxSize) && maxSize > 0 && maxSize <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the setting as a number, or the default when it is blank, negative or not a number.
+     */
+    private static long nonNegativeLong(String value, long defaultValue) {
+        if (isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            final long number = Long.parseLong(value.trim());
+            return number >= 0 ? number : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return true when the setting is blank or a number that is not negative.
+     */
+    private static boolean isNonNegativeLong(String value) {
+        return isBlank(value) || nonNegativeLong(value, -1) >= 0;
+    }
+
     public String toJSON() {
         return GSON.toJson(this);
     }
@@ -128,4 +372,12 @@ public class GitLabConfiguration implements Validatable {
 
         return gitLabClient;
     }
+
+    public GitLabGraphQLClient gitLabGraphQLClient() {
+        if (gitLabGraphQLClient == null) {
+            gitLabGraphQLClient = new GitLabGraphQLClient(this);
+        }
+
+        return gitLabGraphQLClient;
+    }
 }
@@ -21,15 +21,28 @@ import cd.go.authorization.gitlab.annotation.Validatable;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
+import okio.ByteString;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static cd.go.authorization.gitlab.utils.Util.*;
 
 public class GitLabRoleConfiguration implements Validatable {
+    static final int MAX_COMPILED_CONFIGURATIONS = 4096;
+
+    /**
+     * GoCD sends role configurations with every request, so they are compiled once per distinct content and shared;
+     * the least recently used ones are dropped once there are too many.
+     */
+    private static final Map<String, CompiledRoleConfiguration> COMPILED = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledRoleConfiguration> eldest) {
+            return size() > MAX_COMPILED_CONFIGURATIONS;
+        }
+    };
 
     @Expose
     @SerializedName("Groups")
@@ -46,28 +59,40 @@ public class GitLabRoleConfiguration implements Validatable {
     @ProfileField(key = "Users", required = false, secure = false)
     private String users;
 
+    private transient CompiledRoleConfiguration compiled;
+
     public GitLabRoleConfiguration() {
     }
 
     public Map<String, List<String>> groups() {
-        return toMap(groups);
+        return compiled().groups();
     }
 
     public Map<String, List<String>> projects() {
-        return toMap(projects);
+        return compiled().projects();
     }
 
-    private HashMap<String, List<String>> toMap(String string) {
-        final HashMap<String, List<String>> map = new HashMap<>();
-        splitIntoLinesAndTrimSpaces(string).forEach(line -> {
-            if (line.contains(":")) {
-                final String[] parts = line.split(":", 2);
-                map.put(parts[0], listFromCommaSeparatedString(toLowerCase(parts[1])));
-            } else {
-                map.put(line, Collections.emptyList());
+    public CompiledRoleConfiguration compiled() {
+        CompiledRoleConfiguration compiled = this.compiled;
+        if (compiled == null) {
+            final String fingerprint = fingerprint();
+            synchronized (COMPILED) {
+                compiled = COMPILED.computeIfAbsent(fingerprint, key -> new CompiledRoleConfiguration(groups, projects, users));
             }
-        });
-        return map;
+            this.compiled = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * @return a hash of the content of the role configuration.
+     */
+    String fingerprint() {
+        return ByteString.encodeUtf8(part(groups) + part(projects) + part(users)).sha256().hex();
+    }
+
+    private static String part(String value) {
+        return value == null ? "\0" : value.length() + ":" + value;
     }
 
     public static GitLabRoleConfiguration fromJSON(String json) {
@@ -87,8 +112,8 @@ public class GitLabRoleConfiguration implements Validatable {
         return isNotBlank(groups) || isNotBlank(projects) || isNotBlank(users);
     }
 
-    public List<String> users() {
-        return listFromCommaSeparatedString(users);
+    public Set<String> users() {
+        return compiled().users();
     }
 
     @Override
@@ -18,15 +18,21 @@ package cd.go.authorization.gitlab.utils;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class Util {
     public static final Gson GSON = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
@@ -53,6 +59,20 @@ public class Util {
         return output.toByteArray();
     }
 
+    /**
+     * Decodes a JSON array element by element, without first reading the whole document into memory.
+     */
+    public static <T> void forEachInJSONArray(Reader reader, Class<T> type, Consumer<? super T> consumer) throws IOException {
+        final TypeAdapter<T> adapter = GSON.getAdapter(type);
+        try (JsonReader jsonReader = GSON.newJsonReader(reader)) {
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                consumer.accept(adapter.read(jsonReader));
+            }
+            jsonReader.endArray();
+        }
+    }
+
     public static String pluginId() {
         String s = readResource("/plugin.properties");
         try {
@@ -98,4 +118,13 @@ public class Util {
     public static boolean isNotBlank(final CharSequence cs) {
         return !isBlank(cs);
     }
+
+    public static ThreadFactory daemonThreadFactory(String namePrefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
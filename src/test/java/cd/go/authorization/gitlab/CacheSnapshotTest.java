@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.client.GitLabCatalog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class CacheSnapshotTest {
+    private static final Duration TTL = Duration.ofHours(1);
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private GitLabCatalog gitLabCatalog;
+
+    @BeforeEach
+    public void setUp() {
+        file = directory.resolve(CacheSnapshot.FILE_NAME);
+        gitLabCatalog = mock(GitLabCatalog.class);
+    }
+
+    @Test
+    public void shouldRestoreCachedRolesAsStale() throws Exception {
+        final RolesCache rolesCache = new RolesCache(Clock.systemUTC());
+        rolesCache.put("auth-config", "granted-key", true, Duration.ZERO, TTL, 100);
+        rolesCache.put("auth-config", "denied-key", false, Duration.ZERO, TTL, 100);
+        new CacheSnapshot(file, rolesCache, gitLabCatalog).save();
+
+        final RolesCache restoredRolesCache = new RolesCache(Clock.systemUTC());
+        assertThat(new CacheSnapshot(file, restoredRolesCache, gitLabCatalog).restore()).isTrue();
+
+        assertThat(restoredRolesCache.get("auth-config", "granted-key").isGranted()).isTrue();
+        assertThat(restoredRolesCache.get("auth-config", "granted-key").isStale()).isTrue();
+        assertThat(restoredRolesCache.get("auth-config", "denied-key").isGranted()).isFalse();
+        verify(gitLabCatalog).writeMembersTo(any());
+        verify(gitLabCatalog).readMembersFrom(any());
+    }
+
+    @Test
+    public void shouldNotRestoreExpiredRoles() throws Exception {
+        final RolesCache rolesCache = new RolesCache(Clock.systemUTC());
+        rolesCache.put("auth-config", "key", true, Duration.ZERO, Duration.ofMillis(1), 100);
+        Thread.sleep(5);
+        new CacheSnapshot(file, rolesCache, gitLabCatalog).save();
+
+        final RolesCache restoredRolesCache = new RolesCache(Clock.systemUTC());
+        new CacheSnapshot(file, restoredRolesCache, gitLabCatalog).restore();
+
+        assertThat(restoredRolesCache.size()).isZero();
+    }
+
+    @Test
+    public void shouldDiscardSnapshotWithAnotherVersion() throws Exception {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(CacheSnapshot.MAGIC);
+            out.writeInt(CacheSnapshot.VERSION + 1);
+        }
+
+        assertThat(new CacheSnapshot(file, new RolesCache(Clock.systemUTC()), gitLabCatalog).restore()).isFalse();
+    }
+
+    @Test
+    public void shouldDiscardSnapshotNotMatchingItsChecksum() throws Exception {
+        final RolesCache rolesCache = new RolesCache(Clock.systemUTC());
+        rolesCache.put("auth-config", "key", true, Duration.ZERO, TTL, 100);
+        new CacheSnapshot(file, rolesCache, gitLabCatalog).save();
+
+        final byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        final RolesCache restoredRolesCache = new RolesCache(Clock.systemUTC());
+        assertThat(new CacheSnapshot(file, restoredRolesCache, gitLabCatalog).restore()).isFalse();
+        assertThat(restoredRolesCache.size()).isZero();
+    }
+
+    @Test
+    public void shouldNotRestoreWithoutSnapshot() {
+        assertThat(new CacheSnapshot(file, new RolesCache(Clock.systemUTC()), gitLabCatalog).restore()).isFalse();
+    }
+}
@@ -16,16 +16,34 @@
 
 package cd.go.authorization.gitlab;
 
+import cd.go.authorization.gitlab.client.GitLabCatalog;
 import cd.go.authorization.gitlab.client.GitLabClient;
-import cd.go.authorization.gitlab.client.models.GitLabGroup;
-import cd.go.authorization.gitlab.client.models.GitLabProject;
+import cd.go.authorization.gitlab.client.GitLabGraphQLClient;
+import cd.go.authorization.gitlab.client.ProjectsFilter;
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabGroupSummary;
+import cd.go.authorization.gitlab.client.models.GitLabMemberships;
+import cd.go.authorization.gitlab.client.models.GitLabProjectSummary;
 import cd.go.authorization.gitlab.client.models.GitLabUser;
+import cd.go.authorization.gitlab.client.models.MembershipInfo;
 import cd.go.authorization.gitlab.models.*;
+import com.google.gson.Gson;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonMap;
@@ -64,7 +82,7 @@ public class GitLabAuthorizerTest {
         final GitLabRoleConfiguration gitLabRoleConfiguration = mock(GitLabRoleConfiguration.class);
 
         when(gitLabRole.roleConfiguration()).thenReturn(gitLabRoleConfiguration);
-        when(gitLabRoleConfiguration.users()).thenReturn(List.of("bob"));
+        when(gitLabRoleConfiguration.users()).thenReturn(Set.of("bob"));
         when(gitLabUser.getUsername()).thenReturn("bob");
         when(gitLabRole.name()).thenReturn("admin");
 
@@ -78,7 +96,7 @@ public class GitLabAuthorizerTest {
     public void shouldAssignRoleWhenUserIsAMemberOfAGroup() throws Exception {
         final GitLabRole gitLabRole = mock(GitLabRole.class);
         final GitLabRoleConfiguration gitLabRoleConfiguration = mock(GitLabRoleConfiguration.class);
-        final List<GitLabGroup> gitLabGroups = List.of(mock(GitLabGroup.class));
+        final List<GitLabGroupSummary> gitLabGroups = List.of(mock(GitLabGroupSummary.class));
         final Map<String, List<String>> groups = singletonMap("group-a", emptyList());
         final String personalAccessToken = "some-random-token";
 
@@ -87,7 +105,8 @@ public class GitLabAuthorizerTest {
         when(gitLabRole.roleConfiguration()).thenReturn(gitLabRoleConfiguration);
         when(authConfig.gitLabConfiguration().personalAccessToken()).thenReturn(personalAccessToken);
         when(gitLabRoleConfiguration.groups()).thenReturn(groups);
-        when(groupMembershipChecker.memberOfAtLeastOneGroup(gitLabUser, personalAccessToken, gitLabClient, gitLabGroups, groups)).thenReturn(true);
+        doReturn(compiled(gitLabRoleConfiguration)).when(gitLabRoleConfiguration).compiled();
+        doAnswer(grantRole(3, 0)).when(groupMembershipChecker).grantRoles(eq(gitLabUser), eq(gitLabGroups), any(RoleIndex.class), any(BitSet.class), eq(GroupAccessLevels.NONE), any(MembershipLookups.class));
 
         final List<String> roles = gitLabAuthorizer.authorize(gitLabUser, authConfig, List.of(gitLabRole));
 
@@ -99,8 +118,7 @@ public class GitLabAuthorizerTest {
     public void shouldAssignRoleWhenUserIsAMemberOfAProject() throws Exception {
         final GitLabRole gitLabRole = mock(GitLabRole.class);
         final GitLabRoleConfiguration gitLabRoleConfiguration = mock(GitLabRoleConfiguration.class);
-        final List<GitLabGroup> gitLabGroups = List.of(mock(GitLabGroup.class));
-        final List<GitLabProject> gitLabProjects = List.of(mock(GitLabProject.class));
+        final List<GitLabProjectSummary> gitLabProjects = List.of(mock(GitLabProjectSummary.class));
         final Map<String, List<String>> projects = singletonMap("project-foo", emptyList());
         final String personalAccessToken = "some-random-token";
 
@@ -109,15 +127,329 @@ public class GitLabAuthorizerTest {
         when(gitLabRole.roleConfiguration()).thenReturn(gitLabRoleConfiguration);
         when(authConfig.gitLabConfiguration().personalAccessToken()).thenReturn(personalAccessToken);
         when(gitLabRoleConfiguration.projects()).thenReturn(projects);
-        when(groupMembershipChecker.memberOfAtLeastOneGroup(gitLabUser, personalAccessToken, gitLabClient, gitLabGroups, gitLabRoleConfiguration.groups())).thenReturn(false);
-
-        when(projectMembershipChecker.memberOfAtLeastOneProject(gitLabUser, personalAccessToken, gitLabClient, gitLabProjects, projects)).thenReturn(true);
+        doReturn(compiled(gitLabRoleConfiguration)).when(gitLabRoleConfiguration).compiled();
+        doAnswer(grantRole(3, 0)).when(projectMembershipChecker).grantRoles(eq(gitLabUser), eq(gitLabProjects), any(RoleIndex.class), any(BitSet.class), any(MembershipLookups.class));
 
         final List<String> roles = gitLabAuthorizer.authorize(gitLabUser, authConfig, List.of(gitLabRole));
 
-        verify(projectMembershipChecker).memberOfAtLeastOneProject(any(), anyString(), any(), anyList(), anyMap());
+        verify(projectMembershipChecker).grantRoles(any(), anyList(), any(RoleIndex.class), any(BitSet.class), any(MembershipLookups.class));
         assertThat(roles).hasSize(1);
         assertThat(roles).contains("admin");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldListProjectsFilteredByMembershipWithLowestRequiredAccessLevel() throws Exception {
+        final GitLabRole developers = mock(GitLabRole.class);
+        final GitLabRole maintainers = mock(GitLabRole.class);
+        final GitLabRoleConfiguration developersConfiguration = mock(GitLabRoleConfiguration.class);
+        final GitLabRoleConfiguration maintainersConfiguration = mock(GitLabRoleConfiguration.class);
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.filterProjectsByMembership()).thenReturn(true);
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(developers.roleConfiguration()).thenReturn(developersConfiguration);
+        when(maintainers.roleConfiguration()).thenReturn(maintainersConfiguration);
+        when(developersConfiguration.projects()).thenReturn(singletonMap("project-foo", List.of("developer", "master")));
+        doReturn(compiled(developersConfiguration)).when(developersConfiguration).compiled();
+        when(maintainersConfiguration.projects()).thenReturn(singletonMap("project-bar", List.of("master")));
+        doReturn(compiled(maintainersConfiguration)).when(maintainersConfiguration).compiled();
+
+        gitLabAuthorizer.authorize(gitLabUser, authConfig, List.of(developers, maintainers));
+
+        final ArgumentCaptor<ProjectsFilter> filter = ArgumentCaptor.forClass(ProjectsFilter.class);
+        verify(gitLabClient).projects(eq(personalAccessToken), filter.capture());
+        assertThat(filter.getValue().isMembership()).isTrue();
+        assertThat(filter.getValue().minAccessLevel()).isEqualTo(AccessLevel.DEVELOPER);
+    }
+
+    @Test
+    public void shouldNotFilterByAccessLevelWhenARoleAcceptsAnyProjectMembership() throws Exception {
+        final GitLabRole gitLabRole = mock(GitLabRole.class);
+        final GitLabRoleConfiguration gitLabRoleConfiguration = mock(GitLabRoleConfiguration.class);
+
+        when(gitLabConfiguration.filterProjectsByMembership()).thenReturn(true);
+        when(gitLabRole.roleConfiguration()).thenReturn(gitLabRoleConfiguration);
+        when(gitLabRoleConfiguration.projects()).thenReturn(Map.of("project-foo", List.of("developer"), "project-bar", emptyList()));
+        doReturn(compiled(gitLabRoleConfiguration)).when(gitLabRoleConfiguration).compiled();
+
+        gitLabAuthorizer.authorize(gitLabUser, authConfig, List.of(gitLabRole));
+
+        final ArgumentCaptor<ProjectsFilter> filter = ArgumentCaptor.forClass(ProjectsFilter.class);
+        verify(gitLabClient).projects(any(), filter.capture());
+        assertThat(filter.getValue().isMembership()).isTrue();
+        assertThat(filter.getValue().minAccessLevel()).isNull();
+    }
+
+    @Test
+    public void shouldOnlyLookUpTheTokenOwnerOnGroupsNotRuledOutByItsAccessLevels() throws Exception {
+        final GitLabRole gitLabRole = mock(GitLabRole.class);
+        final GitLabRoleConfiguration gitLabRoleConfiguration = mock(GitLabRoleConfiguration.class);
+        final Map<String, List<String>> groups = Map.of("group-a", List.of("developer"), "group-b", List.of("developer"));
+        final GitLabGroupSummary groupA = new GitLabGroupSummary(1L, "group-a");
+        final List<GitLabGroupSummary> gitLabGroups = List.of(new GitLabGroupSummary(2L, "group-b"), groupA);
+        final MembershipInfo membershipInfo = mock(MembershipInfo.class);
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(gitLabUser.getId()).thenReturn(42);
+        when(gitLabClient.tokenOwnerId(personalAccessToken)).thenReturn(42L);
+        when(gitLabClient.groups(personalAccessToken)).thenReturn(gitLabGroups);
+        when(gitLabClient.groups(personalAccessToken, AccessLevel.DEVELOPER)).thenReturn(List.of(groupA));
+        when(gitLabClient.groupMembershipInfo(personalAccessToken, 1L, 42L)).thenReturn(membershipInfo);
+        when(membershipInfo.getAccessLevel()).thenReturn(AccessLevel.DEVELOPER);
+        when(gitLabRole.name()).thenReturn("developers");
+        when(gitLabRole.roleConfiguration()).thenReturn(gitLabRoleConfiguration);
+        when(gitLabRoleConfiguration.groups()).thenReturn(groups);
+        doReturn(compiled(gitLabRoleConfiguration)).when(gitLabRoleConfiguration).compiled();
+
+        final List<String> roles = new GitLabAuthorizer().authorize(gitLabUser, authConfig, List.of(gitLabRole));
+
+        assertThat(roles).containsExactly("developers");
+        verify(gitLabClient).groups(personalAccessToken, AccessLevel.DEVELOPER);
+        verify(gitLabClient).groupMembershipInfo(personalAccessToken, 1L, 42L);
+        verify(gitLabClient, never()).groupMembershipInfo(personalAccessToken, 2L, 42L);
+    }
+
+    @Test
+    public void shouldLookUpGroupsAndProjectsByPathWhenRolesOnlyReferToFullPaths() throws Exception {
+        final GitLabRole gitLabRole = mock(GitLabRole.class);
+        final GitLabRoleConfiguration gitLabRoleConfiguration = mock(GitLabRoleConfiguration.class);
+        final Map<String, List<String>> groups = singletonMap("acme/group-a", emptyList());
+        final Map<String, List<String>> projects = singletonMap("acme/group-a/project-foo", emptyList());
+        final List<GitLabGroupSummary> gitLabGroups = List.of(new GitLabGroupSummary(1L, "group-a", "acme/group-a"));
+        final List<GitLabProjectSummary> gitLabProjects = List.of(new GitLabProjectSummary(2L, "project-foo", "acme/group-a/project-foo"));
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(gitLabConfiguration.lookupByPath()).thenReturn(true);
+        when(gitLabClient.groupsByPath(personalAccessToken, Set.of("acme/group-a"))).thenReturn(gitLabGroups);
+        when(gitLabClient.projectsByPath(personalAccessToken, Set.of("acme/group-a/project-foo"))).thenReturn(gitLabProjects);
+        when(gitLabRole.name()).thenReturn("admin");
+        when(gitLabRole.roleConfiguration()).thenReturn(gitLabRoleConfiguration);
+        when(gitLabRoleConfiguration.groups()).thenReturn(groups);
+        when(gitLabRoleConfiguration.projects()).thenReturn(projects);
+        doReturn(compiled(gitLabRoleConfiguration)).when(gitLabRoleConfiguration).compiled();
+        doAnswer(grantRole(3, 0)).when(projectMembershipChecker).grantRoles(eq(gitLabUser), eq(gitLabProjects), any(RoleIndex.class), any(BitSet.class), any(MembershipLookups.class));
+
+        final List<String> roles = gitLabAuthorizer.authorize(gitLabUser, authConfig, List.of(gitLabRole));
+
+        assertThat(roles).containsExactly("admin");
+        verify(groupMembershipChecker).grantRoles(eq(gitLabUser), eq(gitLabGroups), any(RoleIndex.class), any(BitSet.class), eq(GroupAccessLevels.NONE), any(MembershipLookups.class));
+        verify(gitLabClient, never()).groups(anyString());
+        verify(gitLabClient, never()).projects(anyString());
+    }
+
+    @Test
+    public void shouldListGroupsWhenARoleRefersToAGroupByName() throws Exception {
+        final GitLabRole gitLabRole = mock(GitLabRole.class);
+        final GitLabRoleConfiguration gitLabRoleConfiguration = mock(GitLabRoleConfiguration.class);
+        final Map<String, List<String>> groups = Map.of("acme/group-a", emptyList(), "group-b", emptyList());
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(gitLabConfiguration.lookupByPath()).thenReturn(true);
+        when(gitLabRole.name()).thenReturn("admin");
+        when(gitLabRole.roleConfiguration()).thenReturn(gitLabRoleConfiguration);
+        when(gitLabRoleConfiguration.groups()).thenReturn(groups);
+        doReturn(compiled(gitLabRoleConfiguration)).when(gitLabRoleConfiguration).compiled();
+
+        gitLabAuthorizer.authorize(gitLabUser, authConfig, List.of(gitLabRole));
+
+        verify(gitLabClient).groups(personalAccessToken);
+        verify(gitLabClient, never()).groupsByPath(anyString(), any());
+        verify(gitLabClient).projectsByPath(personalAccessToken, Set.of());
+    }
+
+    @Test
+    public void shouldResolveMembershipsWithGraphQLWhenEnabled() throws Exception {
+        final GitLabGraphQLClient gitLabGraphQLClient = mock(GitLabGraphQLClient.class);
+        final GitLabRole developers = mock(GitLabRole.class);
+        final GitLabRole maintainers = mock(GitLabRole.class);
+        final GitLabRoleConfiguration developersConfiguration = mock(GitLabRoleConfiguration.class);
+        final GitLabRoleConfiguration maintainersConfiguration = mock(GitLabRoleConfiguration.class);
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(gitLabConfiguration.useGraphQL()).thenReturn(true);
+        when(gitLabConfiguration.gitLabGraphQLClient()).thenReturn(gitLabGraphQLClient);
+        when(developers.name()).thenReturn("developers");
+        when(developers.roleConfiguration()).thenReturn(developersConfiguration);
+        when(developersConfiguration.groups()).thenReturn(singletonMap("acme/group-a", List.of("developer")));
+        doReturn(compiled(developersConfiguration)).when(developersConfiguration).compiled();
+        when(maintainers.name()).thenReturn("maintainers");
+        when(maintainers.roleConfiguration()).thenReturn(maintainersConfiguration);
+        when(maintainersConfiguration.projects()).thenReturn(singletonMap("acme/group-a/project-foo", List.of("master")));
+        doReturn(compiled(maintainersConfiguration)).when(maintainersConfiguration).compiled();
+        when(gitLabGraphQLClient.memberships(personalAccessToken, gitLabUser, Set.of("acme/group-a"), Set.of("acme/group-a/project-foo")))
+                .thenReturn(new GitLabMemberships(Map.of("acme/group-a", AccessLevel.DEVELOPER), Map.of("acme/group-a/project-foo", AccessLevel.DEVELOPER)));
+
+        final List<String> roles = gitLabAuthorizer.authorize(gitLabUser, authConfig, List.of(developers, maintainers));
+
+        assertThat(roles).containsExactly("developers");
+        verifyNoInteractions(gitLabClient, groupMembershipChecker, projectMembershipChecker);
+    }
+
+    @Test
+    public void shouldUseRestApiWhenARoleRefersToAGroupByNameEvenIfGraphQLIsEnabled() throws Exception {
+        final GitLabGraphQLClient gitLabGraphQLClient = mock(GitLabGraphQLClient.class);
+        final GitLabRole gitLabRole = mock(GitLabRole.class);
+        final GitLabRoleConfiguration gitLabRoleConfiguration = mock(GitLabRoleConfiguration.class);
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(gitLabConfiguration.useGraphQL()).thenReturn(true);
+        when(gitLabConfiguration.gitLabGraphQLClient()).thenReturn(gitLabGraphQLClient);
+        when(gitLabRole.roleConfiguration()).thenReturn(gitLabRoleConfiguration);
+        when(gitLabRoleConfiguration.groups()).thenReturn(singletonMap("group-a", emptyList()));
+        doReturn(compiled(gitLabRoleConfiguration)).when(gitLabRoleConfiguration).compiled();
+
+        gitLabAuthorizer.authorize(gitLabUser, authConfig, List.of(gitLabRole));
+
+        verify(gitLabClient).groups(personalAccessToken);
+        verifyNoInteractions(gitLabGraphQLClient);
+    }
+
+    @Test
+    public void shouldReuseCachedRolesAndOnlyResolveRolesWhoseConfigurationChanged() throws Exception {
+        final RolesCache rolesCache = new RolesCache(Clock.systemUTC());
+        final GitLabAuthorizer authorizer = new GitLabAuthorizer(new GroupMembershipChecker(), new ProjectMembershipChecker(), rolesCache, Runnable::run, mock(GitLabCatalog.class));
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(gitLabConfiguration.rolesCacheTTLInSeconds()).thenReturn(300L);
+        when(gitLabConfiguration.rolesCacheMaxSize()).thenReturn(100);
+        when(gitLabUser.getId()).thenReturn(7);
+        when(gitLabClient.groups(personalAccessToken)).thenReturn(List.of(new GitLabGroupSummary(1L, "group-a"), new GitLabGroupSummary(2L, "group-b")));
+
+        final GitLabRole groupA = GitLabRole.fromJSON("{\"name\": \"a\", \"configuration\": {\"Groups\": \"group-a\"}}");
+        final GitLabRole groupB = GitLabRole.fromJSON("{\"name\": \"b\", \"configuration\": {\"Groups\": \"group-b\"}}");
+
+        assertThat(authorizer.authorize(gitLabUser, authConfig, List.of(groupA, groupB))).containsExactly("a", "b");
+        assertThat(authorizer.authorize(gitLabUser, authConfig, List.of(groupA, groupB))).containsExactly("a", "b");
+        verify(gitLabClient, times(1)).groups(personalAccessToken);
+        assertThat(rolesCache.hits()).isEqualTo(2);
+        assertThat(rolesCache.misses()).isEqualTo(2);
+
+        final GitLabRole changedGroupB = GitLabRole.fromJSON("{\"name\": \"b\", \"configuration\": {\"Groups\": \"group-c\"}}");
+
+        assertThat(authorizer.authorize(gitLabUser, authConfig, List.of(groupA, changedGroupB))).containsExactly("a");
+        assertThat(rolesCache.hits()).isEqualTo(3);
+        assertThat(rolesCache.misses()).isEqualTo(3);
+        verify(gitLabClient, times(2)).groups(personalAccessToken);
+    }
+
+    @Test
+    public void shouldReturnStaleRolesAndRefreshThemInTheBackground() throws Exception {
+        final MutableClock clock = new MutableClock();
+        final RolesCache rolesCache = new RolesCache(clock);
+        final List<Runnable> refreshes = new ArrayList<>();
+        final GitLabAuthorizer authorizer = new GitLabAuthorizer(new GroupMembershipChecker(), new ProjectMembershipChecker(), rolesCache, refreshes::add, mock(GitLabCatalog.class));
+        final GitLabRole groupA = GitLabRole.fromJSON("{\"name\": \"a\", \"configuration\": {\"Groups\": \"group-a\"}}");
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(gitLabConfiguration.rolesCacheTTLInSeconds()).thenReturn(300L);
+        when(gitLabConfiguration.rolesCacheRefreshAfterSeconds()).thenReturn(60L);
+        when(gitLabConfiguration.rolesCacheMaxSize()).thenReturn(100);
+        when(gitLabClient.groups(personalAccessToken)).thenReturn(List.of(new GitLabGroupSummary(1L, "group-a")));
+
+        assertThat(authorizer.authorize(gitLabUser, authConfig, List.of(groupA))).containsExactly("a");
+
+        clock.advance(Duration.ofSeconds(90));
+        when(gitLabClient.groups(personalAccessToken)).thenReturn(emptyList());
+
+        assertThat(authorizer.authorize(gitLabUser, authConfig, List.of(groupA))).containsExactly("a");
+        assertThat(authorizer.authorize(gitLabUser, authConfig, List.of(groupA))).containsExactly("a");
+        assertThat(refreshes).hasSize(1);
+        verify(gitLabClient, times(1)).groups(personalAccessToken);
+
+        refreshes.get(0).run();
+
+        assertThat(authorizer.authorize(gitLabUser, authConfig, List.of(groupA))).isEmpty();
+        verify(gitLabClient, times(2)).groups(personalAccessToken);
+    }
+
+    @Test
+    public void shouldReloadRolesOnceTheyExpire() throws Exception {
+        final MutableClock clock = new MutableClock();
+        final List<Runnable> refreshes = new ArrayList<>();
+        final GitLabAuthorizer authorizer = new GitLabAuthorizer(new GroupMembershipChecker(), new ProjectMembershipChecker(), new RolesCache(clock), refreshes::add, mock(GitLabCatalog.class));
+        final GitLabRole groupA = GitLabRole.fromJSON("{\"name\": \"a\", \"configuration\": {\"Groups\": \"group-a\"}}");
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(gitLabConfiguration.rolesCacheTTLInSeconds()).thenReturn(300L);
+        when(gitLabConfiguration.rolesCacheRefreshAfterSeconds()).thenReturn(60L);
+        when(gitLabConfiguration.rolesCacheMaxSize()).thenReturn(100);
+        when(gitLabClient.groups(personalAccessToken)).thenReturn(List.of(new GitLabGroupSummary(1L, "group-a")));
+
+        authorizer.authorize(gitLabUser, authConfig, List.of(groupA));
+        clock.advance(Duration.ofSeconds(300));
+        when(gitLabClient.groups(personalAccessToken)).thenReturn(emptyList());
+
+        assertThat(authorizer.authorize(gitLabUser, authConfig, List.of(groupA))).isEmpty();
+        assertThat(refreshes).isEmpty();
+    }
+
+    @Test
+    public void shouldTakeGroupsAndProjectsFromTheCatalogWhenEnabled() throws Exception {
+        final GitLabCatalog gitLabCatalog = mock(GitLabCatalog.class);
+        final GitLabAuthorizer authorizer = new GitLabAuthorizer(groupMembershipChecker, projectMembershipChecker, new RolesCache(Clock.systemUTC()), Runnable::run, gitLabCatalog);
+        final GitLabRole gitLabRole = mock(GitLabRole.class);
+        final GitLabRoleConfiguration gitLabRoleConfiguration = mock(GitLabRoleConfiguration.class);
+        final String personalAccessToken = "some-random-token";
+
+        when(gitLabConfiguration.personalAccessToken()).thenReturn(personalAccessToken);
+        when(gitLabConfiguration.catalogRefreshIntervalInSeconds()).thenReturn(600L);
+        when(gitLabRole.roleConfiguration()).thenReturn(gitLabRoleConfiguration);
+        doReturn(compiled(gitLabRoleConfiguration)).when(gitLabRoleConfiguration).compiled();
+
+        authorizer.authorize(gitLabUser, authConfig, List.of(gitLabRole));
+
+        verify(gitLabCatalog).groups(gitLabClient, personalAccessToken, Duration.ofMinutes(10));
+        verify(gitLabCatalog).projects(gitLabClient, personalAccessToken, ProjectsFilter.NONE, Duration.ofMinutes(10));
+        verify(gitLabClient, never()).groups(anyString());
+        verify(gitLabClient, never()).projects(anyString());
+    }
+
+    private static Answer<Void> grantRole(int grantedRolesArgument, int role) {
+        return invocation -> {
+            invocation.<BitSet>getArgument(grantedRolesArgument).set(role);
+            return null;
+        };
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2022-01-01T00:00:00Z");
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    private static CompiledRoleConfiguration compiled(GitLabRoleConfiguration roleConfiguration) {
+        return GitLabRoleConfiguration.fromJSON(new Gson().toJson(Map.of(
+                "Groups", lines(roleConfiguration.groups()), "Projects", lines(roleConfiguration.projects())))).compiled();
+    }
+
+    private static String lines(Map<String, List<String>> entries) {
+        return entries.entrySet().stream()
+                .map(entry -> entry.getValue().isEmpty() ? entry.getKey() : entry.getKey() + ": " + String.join(", ", entry.getValue()))
+                .collect(Collectors.joining("\n"));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.client.GitLabClient;
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabGroupSummary;
+import cd.go.authorization.gitlab.models.GitLabRole;
+import cd.go.authorization.gitlab.models.GitLabRoleConfiguration;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class GroupAccessLevelsTest {
+    private static final String PERSONAL_ACCESS_TOKEN = "some-random-token";
+
+    private GitLabClient gitLabClient;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        gitLabClient = mock(GitLabClient.class);
+        when(gitLabClient.groups(PERSONAL_ACCESS_TOKEN, AccessLevel.REPORTER)).thenReturn(groups(1L, 2L, 3L));
+        when(gitLabClient.groups(PERSONAL_ACCESS_TOKEN, AccessLevel.DEVELOPER)).thenReturn(groups(2L, 3L));
+        when(gitLabClient.groups(PERSONAL_ACCESS_TOKEN, AccessLevel.MASTER)).thenReturn(groups(3L));
+        when(gitLabClient.groups(PERSONAL_ACCESS_TOKEN, AccessLevel.OWNER)).thenReturn(groups());
+    }
+
+    @Test
+    public void shouldListGroupsOncePerLowestRequiredAccessLevel() throws Exception {
+        final List<GitLabRole> roles = List.of(
+                role(Map.of("group-a", List.of("reporter"), "group-b", List.of("developer"))),
+                role(Map.of("group-c", List.of("developer", "reporter"))));
+
+        GroupAccessLevels.resolve(gitLabClient, PERSONAL_ACCESS_TOKEN, roles);
+
+        verify(gitLabClient).groups(PERSONAL_ACCESS_TOKEN, AccessLevel.REPORTER);
+        verify(gitLabClient).groups(PERSONAL_ACCESS_TOKEN, AccessLevel.DEVELOPER);
+        verifyNoMoreInteractions(gitLabClient);
+    }
+
+    @Test
+    public void shouldRuleOutGroupsBelowTheLowestRequiredAccessLevel() throws Exception {
+        final GroupAccessLevels groupAccessLevels = GroupAccessLevels.resolve(gitLabClient, PERSONAL_ACCESS_TOKEN,
+                List.of(role(Map.of("group-a", List.of("reporter"), "group-b", List.of("developer")))));
+
+        assertThat(groupAccessLevels.isResolved()).isTrue();
+        assertThat(groupAccessLevels.rulesOut(1L, EnumSet.of(AccessLevel.REPORTER))).isFalse();
+        assertThat(groupAccessLevels.rulesOut(1L, EnumSet.of(AccessLevel.DEVELOPER))).isTrue();
+        assertThat(groupAccessLevels.rulesOut(2L, EnumSet.of(AccessLevel.DEVELOPER))).isFalse();
+        assertThat(groupAccessLevels.rulesOut(4L, EnumSet.of(AccessLevel.REPORTER, AccessLevel.DEVELOPER))).isTrue();
+    }
+
+    @Test
+    public void shouldNotRuleOutGroupsOnWhichTheEffectiveAccessLevelIsHigher() throws Exception {
+        final GroupAccessLevels groupAccessLevels = GroupAccessLevels.resolve(gitLabClient, PERSONAL_ACCESS_TOKEN, List.of(role(Map.of("group-a", List.of("reporter")))));
+
+        // the direct membership may still be the one required, which only the member api can tell
+        assertThat(groupAccessLevels.rulesOut(3L, EnumSet.of(AccessLevel.REPORTER))).isFalse();
+    }
+
+    @Test
+    public void shouldListGroupsOnceForAMinimumAccessLevel() throws Exception {
+        final GroupAccessLevels groupAccessLevels = GroupAccessLevels.resolve(gitLabClient, PERSONAL_ACCESS_TOKEN, List.of(role(Map.of("group-a", List.of("developer+")))));
+
+        assertThat(groupAccessLevels.rulesOut(1L, AccessLevel.fromNames(List.of("developer+")))).isTrue();
+        assertThat(groupAccessLevels.rulesOut(2L, AccessLevel.fromNames(List.of("developer+")))).isFalse();
+        assertThat(groupAccessLevels.rulesOut(3L, AccessLevel.fromNames(List.of("developer+")))).isFalse();
+        verify(gitLabClient).groups(PERSONAL_ACCESS_TOKEN, AccessLevel.DEVELOPER);
+        verifyNoMoreInteractions(gitLabClient);
+    }
+
+    @Test
+    public void shouldNotListGroupsWhenNoAccessLevelIsRequired() throws Exception {
+        final GroupAccessLevels groupAccessLevels = GroupAccessLevels.resolve(gitLabClient, PERSONAL_ACCESS_TOKEN, List.of(role(Map.of("group-a", emptyList()))));
+
+        assertThat(groupAccessLevels.isResolved()).isFalse();
+        verifyNoInteractions(gitLabClient);
+    }
+
+    private static GitLabRole role(Map<String, List<String>> groups) {
+        final GitLabRole role = mock(GitLabRole.class);
+        final String lines = groups.entrySet().stream()
+                .map(entry -> entry.getValue().isEmpty() ? entry.getKey() : entry.getKey() + ": " + String.join(", ", entry.getValue()))
+                .collect(Collectors.joining("\n"));
+        when(role.roleConfiguration()).thenReturn(GitLabRoleConfiguration.fromJSON(new Gson().toJson(Map.of("Groups", lines))));
+        return role;
+    }
+
+    private static List<GitLabGroupSummary> groups(Long... ids) {
+        return Arrays.stream(ids).map(id -> new GitLabGroupSummary(id, "group-" + id)).toList();
+    }
+}
@@ -16,21 +16,28 @@
 
 package cd.go.authorization.gitlab;
 
+import cd.go.authorization.gitlab.client.GitLabCatalog;
 import cd.go.authorization.gitlab.client.GitLabClient;
 import cd.go.authorization.gitlab.client.models.AccessLevel;
-import cd.go.authorization.gitlab.client.models.GitLabGroup;
+import cd.go.authorization.gitlab.client.models.GitLabGroupSummary;
 import cd.go.authorization.gitlab.client.models.GitLabUser;
 import cd.go.authorization.gitlab.client.models.MembershipInfo;
+import cd.go.authorization.gitlab.models.GitLabRole;
 import cd.go.authorization.gitlab.models.TokenInfo;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import static java.util.Collections.emptyList;
-import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.openMocks;
@@ -53,25 +60,25 @@ public class GroupMembershipCheckerTest {
 
     @Test
     public void shouldReturnTrueWhenUserIsAMemberOfGroup() throws Exception {
-        final Map<String, List<String>> groupsFromRole = singletonMap("group-a", emptyList());
-        final GitLabGroup gitLabGroup = mock(GitLabGroup.class);
-        final List<GitLabGroup> gitLabGroups = List.of(gitLabGroup);
+        final RoleIndex roleIndex = roleIndex("group-a");
+        final GitLabGroupSummary gitLabGroup = mock(GitLabGroupSummary.class);
+        final List<GitLabGroupSummary> gitLabGroups = List.of(gitLabGroup);
         final String personalAccessToken = "some-random-token";
 
         when(gitLabGroup.getName()).thenReturn("group-a");
 
-        final boolean member = groupMembershipChecker.memberOfAtLeastOneGroup(gitLabUser, personalAccessToken, gitLabClient, gitLabGroups, groupsFromRole);
+        final BitSet grantedRoles = grantRoles(gitLabGroups, roleIndex, lookups(personalAccessToken, MemberIndex.NONE));
 
-        assertTrue(member);
+        assertTrue(grantedRoles.get(0));
         verifyNoMoreInteractions(gitLabClient);
     }
 
     @Test
     public void shouldCheckForAccessLevelWhenProvidedInRoleConfig() throws Exception {
-        final Map<String, List<String>> groupsFromRole = singletonMap("group-a", List.of("developer"));
-        final GitLabGroup gitLabGroupA = mock(GitLabGroup.class);
-        final GitLabGroup gitLabGroupB = mock(GitLabGroup.class);
-        final List<GitLabGroup> gitLabGroups = List.of(gitLabGroupB, gitLabGroupA);
+        final RoleIndex roleIndex = roleIndex("group-a: developer");
+        final GitLabGroupSummary gitLabGroupA = mock(GitLabGroupSummary.class);
+        final GitLabGroupSummary gitLabGroupB = mock(GitLabGroupSummary.class);
+        final List<GitLabGroupSummary> gitLabGroups = List.of(gitLabGroupB, gitLabGroupA);
         final MembershipInfo membershipInfo = mock(MembershipInfo.class);
         final String personalAccessToken = "some-random-token";
 
@@ -80,9 +87,140 @@ public class GroupMembershipCheckerTest {
         when(gitLabClient.groupMembershipInfo(personalAccessToken, gitLabGroupA.getId(), gitLabUser.getId())).thenReturn(membershipInfo);
         when(membershipInfo.getAccessLevel()).thenReturn(AccessLevel.DEVELOPER);
 
-        final boolean member = groupMembershipChecker.memberOfAtLeastOneGroup(gitLabUser, personalAccessToken, gitLabClient, gitLabGroups, groupsFromRole);
+        final BitSet grantedRoles = grantRoles(gitLabGroups, roleIndex, lookups(personalAccessToken, MemberIndex.NONE));
 
-        assertTrue(member);
+        assertTrue(grantedRoles.get(0));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldMatchHigherAccessLevelsForAMinimumAccessLevel() throws Exception {
+        final RoleIndex roleIndex = roleIndex("group-a: developer+");
+        final List<GitLabGroupSummary> gitLabGroups = List.of(new GitLabGroupSummary(1L, "group-a"));
+        final MembershipInfo membershipInfo = mock(MembershipInfo.class);
+
+        when(gitLabUser.getId()).thenReturn(10);
+        when(gitLabClient.groupMembershipInfo("some-random-token", 1L, 10L)).thenReturn(membershipInfo);
+        when(membershipInfo.getAccessLevel()).thenReturn(AccessLevel.MASTER, AccessLevel.REPORTER);
+
+        assertTrue(grantRoles(gitLabGroups, roleIndex, lookups("some-random-token", MemberIndex.NONE)).get(0));
+        assertFalse(grantRoles(gitLabGroups, roleIndex, lookups("some-random-token", MemberIndex.NONE)).get(0));
+    }
+
+    @Test
+    public void shouldMatchGroupByFullPath() throws Exception {
+        final RoleIndex roleIndex = roleIndex("acme/group-a");
+        final List<GitLabGroupSummary> gitLabGroups = List.of(new GitLabGroupSummary(1L, "Group A", "acme/group-a"));
+
+        final BitSet grantedRoles = grantRoles(gitLabGroups, roleIndex, lookups("some-random-token", MemberIndex.NONE));
+
+        assertTrue(grantedRoles.get(0));
+        verifyNoMoreInteractions(gitLabClient);
+    }
+
+    @Test
+    public void shouldLookUpAccessLevelInMemberIndexWhenEnabled() throws Exception {
+        final RoleIndex roleIndex = roleIndex("acme/group-a: developer");
+        final List<GitLabGroupSummary> gitLabGroups = List.of(new GitLabGroupSummary(1L, "Group A", "acme/group-a"));
+        final GitLabCatalog gitLabCatalog = mock(GitLabCatalog.class);
+        final MemberIndex memberIndex = new MemberIndex(gitLabCatalog, gitLabClient, "some-random-token", Duration.ofMinutes(10), Duration.ZERO);
+
+        when(gitLabUser.getId()).thenReturn(10);
+        when(gitLabCatalog.loadedGroupMembers(gitLabClient, "some-random-token", 1L, Duration.ofMinutes(10), Duration.ZERO)).thenReturn(Map.of(10L, AccessLevel.DEVELOPER));
+
+        final BitSet grantedRoles = grantRoles(gitLabGroups, roleIndex, lookups("some-random-token", memberIndex));
+
+        assertTrue(grantedRoles.get(0));
+        verifyNoMoreInteractions(gitLabClient);
+    }
+
+    @Test
+    public void shouldNotCallMemberApiForUsersMissingFromMemberIndex() throws Exception {
+        final RoleIndex roleIndex = roleIndex("acme/group-a: developer");
+        final List<GitLabGroupSummary> gitLabGroups = List.of(new GitLabGroupSummary(1L, "Group A", "acme/group-a"));
+        final GitLabCatalog gitLabCatalog = mock(GitLabCatalog.class);
+        final MemberIndex memberIndex = new MemberIndex(gitLabCatalog, gitLabClient, "some-random-token", Duration.ofMinutes(10), Duration.ZERO);
+
+        when(gitLabUser.getId()).thenReturn(10);
+        when(gitLabCatalog.loadedGroupMembers(gitLabClient, "some-random-token", 1L, Duration.ofMinutes(10), Duration.ZERO)).thenReturn(Map.of(20L, AccessLevel.OWNER));
+
+        final BitSet grantedRoles = grantRoles(gitLabGroups, roleIndex, lookups("some-random-token", memberIndex));
+
+        assertFalse(grantedRoles.get(0));
+        verifyNoMoreInteractions(gitLabClient);
+    }
+
+    @Test
+    public void shouldCallMemberApiUntilTheMembersOfTheGroupAreIndexed() throws Exception {
+        final RoleIndex roleIndex = roleIndex("acme/group-a: developer");
+        final List<GitLabGroupSummary> gitLabGroups = List.of(new GitLabGroupSummary(1L, "Group A", "acme/group-a"));
+        final GitLabCatalog gitLabCatalog = mock(GitLabCatalog.class);
+        final MemberIndex memberIndex = new MemberIndex(gitLabCatalog, gitLabClient, "some-random-token", Duration.ofMinutes(10), Duration.ZERO);
+
+        when(gitLabUser.getId()).thenReturn(10);
+        when(gitLabCatalog.loadedGroupMembers(gitLabClient, "some-random-token", 1L, Duration.ofMinutes(10), Duration.ZERO)).thenReturn(null);
+        when(gitLabClient.groupMembershipInfo("some-random-token", 1L, 10L)).thenReturn(new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER));
+
+        final BitSet grantedRoles = grantRoles(gitLabGroups, roleIndex, lookups("some-random-token", memberIndex));
+
+        assertTrue(grantedRoles.get(0));
+        verify(gitLabClient).groupMembershipInfo("some-random-token", 1L, 10L);
+    }
+
+    @Test
+    public void shouldGrantAllRolesReferringToAGroupWithASingleMemberLookup() throws Exception {
+        final List<GitLabRole> roles = List.of(
+                GitLabRole.fromJSON("{\"name\": \"developers\", \"configuration\": {\"Groups\": \"group-a: developer\"}}"),
+                GitLabRole.fromJSON("{\"name\": \"owners\", \"configuration\": {\"Groups\": \"group-a: owner\"}}"),
+                GitLabRole.fromJSON("{\"name\": \"members\", \"configuration\": {\"Groups\": \"acme/group-a: owner\\ngroup-b\"}}"),
+                GitLabRole.fromJSON("{\"name\": \"others\", \"configuration\": {\"Groups\": \"group-c: developer\"}}"));
+        final List<GitLabGroupSummary> gitLabGroups = List.of(new GitLabGroupSummary(1L, "group-a", "acme/group-a"), new GitLabGroupSummary(2L, "group-b", "acme/group-b"));
+        final MembershipInfo membershipInfo = mock(MembershipInfo.class);
+        final BitSet grantedRoles = new BitSet();
+
+        when(gitLabUser.getId()).thenReturn(10);
+        when(gitLabClient.groupMembershipInfo("some-random-token", 1L, 10L)).thenReturn(membershipInfo);
+        when(membershipInfo.getAccessLevel()).thenReturn(AccessLevel.DEVELOPER);
+
+        groupMembershipChecker.grantRoles(gitLabUser, gitLabGroups, RoleIndex.of(roles), grantedRoles, GroupAccessLevels.NONE, new MembershipLookups(gitLabClient, "some-random-token", MemberIndex.NONE));
+
+        assertThat(grantedRoles.stream().boxed().collect(toList())).containsExactly(0, 2);
+        verify(gitLabClient).groupMembershipInfo("some-random-token", 1L, 10L);
+        verifyNoMoreInteractions(gitLabClient);
+    }
+
+    @Test
+    public void shouldAuthorizeTheTokenOwnerOnDirectMembershipLikeAnyOtherUser() throws Exception {
+        final List<GitLabRole> roles = List.of(
+                GitLabRole.fromJSON("{\"name\": \"owners\", \"configuration\": {\"Groups\": \"group-a: owner\"}}"),
+                GitLabRole.fromJSON("{\"name\": \"developers\", \"configuration\": {\"Groups\": \"group-b: developer\"}}"));
+        final List<GitLabGroupSummary> gitLabGroups = List.of(new GitLabGroupSummary(1L, "group-a", "acme/group-a"), new GitLabGroupSummary(2L, "group-b", "acme/group-b"));
+        // owner of group-a through its parent group, and only a reporter of group-b
+        final GroupAccessLevels groupAccessLevels = new GroupAccessLevels(Map.of(AccessLevel.OWNER, Set.of(1L), AccessLevel.DEVELOPER, Set.of(1L)));
+        final MembershipInfo membershipInfo = mock(MembershipInfo.class);
+        final BitSet grantedRoles = new BitSet();
+
+        when(gitLabUser.getId()).thenReturn(10);
+        when(gitLabClient.groupMembershipInfo("some-random-token", 1L, 10L)).thenReturn(membershipInfo);
+        when(membershipInfo.getAccessLevel()).thenReturn(AccessLevel.DEVELOPER);
+
+        groupMembershipChecker.grantRoles(gitLabUser, gitLabGroups, RoleIndex.of(roles), grantedRoles, groupAccessLevels, new MembershipLookups(gitLabClient, "some-random-token", MemberIndex.NONE));
+
+        assertThat(grantedRoles.isEmpty()).isTrue();
+        verify(gitLabClient).groupMembershipInfo("some-random-token", 1L, 10L);
+        verifyNoMoreInteractions(gitLabClient);
+    }
+
+    private BitSet grantRoles(List<GitLabGroupSummary> gitLabGroups, RoleIndex roleIndex, MembershipLookups lookups) throws IOException {
+        final BitSet grantedRoles = new BitSet();
+        groupMembershipChecker.grantRoles(gitLabUser, gitLabGroups, roleIndex, grantedRoles, GroupAccessLevels.NONE, lookups);
+        return grantedRoles;
+    }
+
+    private MembershipLookups lookups(String personalAccessToken, MemberIndex memberIndex) {
+        return new MembershipLookups(gitLabClient, personalAccessToken, memberIndex);
+    }
+
+    private static RoleIndex roleIndex(String groups) {
+        return RoleIndex.of(List.of(GitLabRole.fromJSON("{\"name\": \"some-role\", \"configuration\": {\"Groups\": \"" + groups + "\"}}")));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.client.GitLabClient;
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabUser;
+import cd.go.authorization.gitlab.client.models.MembershipInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class MembershipLookupsTest {
+    private static final String PERSONAL_ACCESS_TOKEN = "some-random-token";
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldCallMemberApiOncePerGroupOrProjectAndUser() throws Exception {
+        final GitLabClient gitLabClient = mock(GitLabClient.class);
+        final MembershipInfo developer = mock(MembershipInfo.class);
+        final MembershipInfo notAMember = MembershipInfo.notAMember(2L);
+        when(developer.getAccessLevel()).thenReturn(AccessLevel.DEVELOPER);
+        when(gitLabClient.groupMembershipInfo(PERSONAL_ACCESS_TOKEN, 1L, 10L)).thenReturn(developer);
+        when(gitLabClient.projectMembershipInfo(PERSONAL_ACCESS_TOKEN, 1L, 10L)).thenReturn(notAMember);
+        final long savedBefore = MembershipLookups.totalSavedCalls();
+
+        final MembershipLookups lookups = new MembershipLookups(gitLabClient, PERSONAL_ACCESS_TOKEN, MemberIndex.NONE);
+
+        assertThat(lookups.groupAccessLevel(1L, 10L)).isEqualTo(AccessLevel.DEVELOPER);
+        assertThat(lookups.groupAccessLevel(1L, 10L)).isEqualTo(AccessLevel.DEVELOPER);
+        assertThat(lookups.projectAccessLevel(1L, 10L)).isNull();
+        assertThat(lookups.projectAccessLevel(1L, 10L)).isNull();
+
+        verify(gitLabClient).groupMembershipInfo(PERSONAL_ACCESS_TOKEN, 1L, 10L);
+        verify(gitLabClient).projectMembershipInfo(PERSONAL_ACCESS_TOKEN, 1L, 10L);
+        assertThat(lookups.calls()).isEqualTo(2);
+        assertThat(lookups.savedCalls()).isEqualTo(2);
+        assertThat(MembershipLookups.totalSavedCalls() - savedBefore).isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotShareLookupsBetweenAuthorizations() throws Exception {
+        final GitLabClient gitLabClient = mock(GitLabClient.class);
+        when(gitLabClient.groupMembershipInfo(PERSONAL_ACCESS_TOKEN, 1L, 10L)).thenReturn(MembershipInfo.notAMember(1L));
+
+        new MembershipLookups(gitLabClient, PERSONAL_ACCESS_TOKEN, MemberIndex.NONE).groupAccessLevel(1L, 10L);
+        new MembershipLookups(gitLabClient, PERSONAL_ACCESS_TOKEN, MemberIndex.NONE).groupAccessLevel(1L, 10L);
+
+        verify(gitLabClient, times(2)).groupMembershipInfo(PERSONAL_ACCESS_TOKEN, 1L, 10L);
+    }
+
+    @Test
+    public void shouldLookUpCandidatesConcurrentlyUpToTheCallsAllowedInFlight() throws Exception {
+        final MembershipLookups lookups = new MembershipLookups(mock(GitLabClient.class), PERSONAL_ACCESS_TOKEN, MemberIndex.NONE, new MembershipLookups.CallsInFlight(2));
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final MembershipLookups.AccessLevelLookup slowLookup = () -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            final CompletableFuture<AccessLevel> lookup = new CompletableFuture<>();
+            executor.schedule(() -> {
+                inFlight.decrementAndGet();
+                lookup.complete(null);
+            }, 100, TimeUnit.MILLISECONDS);
+            return lookup;
+        };
+        final BitSet grantedRoles = new BitSet();
+
+        lookups.grantRoles(mock(GitLabUser.class), List.of(
+                new MembershipLookups.Candidate("group", "group-a", List.of(new RoleIndex.Requirement(0, false, EnumSet.of(AccessLevel.DEVELOPER))), slowLookup),
+                new MembershipLookups.Candidate("group", "group-b", List.of(new RoleIndex.Requirement(1, false, EnumSet.of(AccessLevel.DEVELOPER))), slowLookup),
+                new MembershipLookups.Candidate("group", "group-c", List.of(new RoleIndex.Requirement(2, false, EnumSet.of(AccessLevel.DEVELOPER))), slowLookup)), grantedRoles);
+
+        assertThat(maxInFlight.get()).isEqualTo(2);
+        assertThat(grantedRoles.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldCancelLookupsOnceTheirRolesAreGranted() throws Exception {
+        final MembershipLookups.CallsInFlight callsInFlight = new MembershipLookups.CallsInFlight(4);
+        final MembershipLookups lookups = new MembershipLookups(mock(GitLabClient.class), PERSONAL_ACCESS_TOKEN, MemberIndex.NONE, callsInFlight);
+        final CompletableFuture<AccessLevel> slowLookup = new CompletableFuture<>();
+        final BitSet grantedRoles = new BitSet();
+
+        lookups.grantRoles(mock(GitLabUser.class), List.of(
+                new MembershipLookups.Candidate("group", "group-a", List.of(new RoleIndex.Requirement(0, false, EnumSet.of(AccessLevel.DEVELOPER))), () -> slowLookup),
+                new MembershipLookups.Candidate("group", "group-b", List.of(new RoleIndex.Requirement(0, false, EnumSet.of(AccessLevel.DEVELOPER))),
+                        () -> CompletableFuture.supplyAsync(() -> AccessLevel.DEVELOPER, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS)))), grantedRoles);
+
+        assertThat(grantedRoles.get(0)).isTrue();
+        assertThat(slowLookup).isCancelled();
+        assertThat(callsInFlight.inFlight()).isZero();
+    }
+
+    @Test
+    public void shouldMakeConcurrentLookupsWithTheAsynchronousApiAndCancelTheirCalls() throws Exception {
+        final GitLabClient gitLabClient = mock(GitLabClient.class);
+        final CompletableFuture<MembershipInfo> call = new CompletableFuture<>();
+        when(gitLabClient.groupMembershipInfoAsync(PERSONAL_ACCESS_TOKEN, 1L, 10L)).thenReturn(call);
+        final MembershipLookups lookups = new MembershipLookups(gitLabClient, PERSONAL_ACCESS_TOKEN, MemberIndex.NONE, new MembershipLookups.CallsInFlight(2));
+
+        lookups.groupAccessLevelLookup(1L, 10L).cancel(true);
+
+        assertThat(call).isCancelled();
+        verify(gitLabClient, never()).groupMembershipInfo(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void shouldCapCallsInFlightPerServerWhateverTheConcurrencyOfEachAuthConfig() {
+        final MembershipLookups.CallsInFlight callsInFlight = MembershipLookups.callsInFlight("https://gitlab.example.com", 2);
+
+        assertThat(MembershipLookups.callsInFlight("https://gitlab.example.com/", 4)).isSameAs(callsInFlight);
+        assertThat(MembershipLookups.callsInFlight("https://other.example.com", 4)).isNotSameAs(callsInFlight);
+        for (int i = 0; i < 4; i++) {
+            assertThat(callsInFlight.tryAcquire()).isTrue();
+        }
+        assertThat(callsInFlight.tryAcquire()).isFalse();
+        for (int i = 0; i < 4; i++) {
+            callsInFlight.release();
+        }
+    }
+}
@@ -18,19 +18,20 @@ package cd.go.authorization.gitlab;
 
 import cd.go.authorization.gitlab.client.GitLabClient;
 import cd.go.authorization.gitlab.client.models.AccessLevel;
-import cd.go.authorization.gitlab.client.models.GitLabProject;
+import cd.go.authorization.gitlab.client.models.GitLabProjectSummary;
 import cd.go.authorization.gitlab.client.models.GitLabUser;
 import cd.go.authorization.gitlab.client.models.MembershipInfo;
+import cd.go.authorization.gitlab.models.GitLabRole;
 import cd.go.authorization.gitlab.models.TokenInfo;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
-import static java.util.Collections.emptyList;
-import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.openMocks;
@@ -52,25 +53,25 @@ public class ProjectMembershipCheckerTest {
     }
 
     @Test
-    public void shouldReturnTrueWhenUserIsAMemberOfGroup() throws Exception {
-        final Map<String, List<String>> groupsFromRole = singletonMap("project-duck-simulator", emptyList());
-        final GitLabProject gitLabProject = mock(GitLabProject.class);
-        final List<GitLabProject> gitLabProjects = List.of(gitLabProject);
+    public void shouldGrantRoleWhenUserIsAMemberOfProject() throws Exception {
+        final RoleIndex roleIndex = roleIndex("project-duck-simulator");
+        final GitLabProjectSummary gitLabProject = mock(GitLabProjectSummary.class);
+        final List<GitLabProjectSummary> gitLabProjects = List.of(gitLabProject);
 
         when(gitLabProject.getName()).thenReturn("project-duck-simulator");
 
-        final boolean member = projectMembershipChecker.memberOfAtLeastOneProject(gitLabUser, PERSONAL_ACCESS_TOKEN, gitLabClient, gitLabProjects, groupsFromRole);
+        final BitSet grantedRoles = grantRoles(gitLabProjects, roleIndex);
 
-        assertTrue(member);
+        assertTrue(grantedRoles.get(0));
         verifyNoMoreInteractions(gitLabClient);
     }
 
     @Test
     public void shouldCheckForAccessLevelWhenProvidedInRoleConfig() throws Exception {
-        final Map<String, List<String>> groupsFromRole = singletonMap("project-duck-simulator", List.of("developer"));
-        final GitLabProject gitLabProjectA = mock(GitLabProject.class);
-        final GitLabProject gitLabProjectB = mock(GitLabProject.class);
-        final List<GitLabProject> gitLabProjects = List.of(gitLabProjectB, gitLabProjectA);
+        final RoleIndex roleIndex = roleIndex("project-duck-simulator: developer");
+        final GitLabProjectSummary gitLabProjectA = mock(GitLabProjectSummary.class);
+        final GitLabProjectSummary gitLabProjectB = mock(GitLabProjectSummary.class);
+        final List<GitLabProjectSummary> gitLabProjects = List.of(gitLabProjectB, gitLabProjectA);
         final MembershipInfo membershipInfo = mock(MembershipInfo.class);
 
         when(gitLabProjectA.getName()).thenReturn("project-duck-simulator");
@@ -78,9 +79,61 @@ public class ProjectMembershipCheckerTest {
         when(gitLabClient.projectMembershipInfo(PERSONAL_ACCESS_TOKEN, gitLabProjectA.getId(), gitLabUser.getId())).thenReturn(membershipInfo);
         when(membershipInfo.getAccessLevel()).thenReturn(AccessLevel.DEVELOPER);
 
-        final boolean member = projectMembershipChecker.memberOfAtLeastOneProject(gitLabUser, PERSONAL_ACCESS_TOKEN, gitLabClient, gitLabProjects, groupsFromRole);
+        final BitSet grantedRoles = grantRoles(gitLabProjects, roleIndex);
 
-        assertTrue(member);
+        assertTrue(grantedRoles.get(0));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldUseAccessLevelFromProjectListingWhenUserOwnsTheAccessToken() throws Exception {
+        final RoleIndex roleIndex = roleIndex("project-duck-simulator: developer");
+        final List<GitLabProjectSummary> gitLabProjects = List.of(new GitLabProjectSummary(1L, "project-duck-simulator", "group/project-duck-simulator", true, AccessLevel.DEVELOPER));
+
+        when(gitLabUser.getId()).thenReturn(42);
+        when(gitLabClient.tokenOwnerId(PERSONAL_ACCESS_TOKEN)).thenReturn(42L);
+
+        final BitSet grantedRoles = grantRoles(gitLabProjects, roleIndex);
+
+        assertTrue(grantedRoles.get(0));
+        verify(gitLabClient, never()).projectMembershipInfo(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void shouldNotBeAMemberWhenProjectListingHasNoDirectAccessForTheTokenOwner() throws Exception {
+        final RoleIndex roleIndex = roleIndex("project-duck-simulator: developer");
+        final List<GitLabProjectSummary> gitLabProjects = List.of(new GitLabProjectSummary(1L, "project-duck-simulator", "group/project-duck-simulator", true, null));
+
+        when(gitLabUser.getId()).thenReturn(42);
+        when(gitLabClient.tokenOwnerId(PERSONAL_ACCESS_TOKEN)).thenReturn(42L);
+
+        final BitSet grantedRoles = grantRoles(gitLabProjects, roleIndex);
+
+        assertFalse(grantedRoles.get(0));
+        verify(gitLabClient, never()).projectMembershipInfo(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void shouldFetchMembershipWhenUserDoesNotOwnTheAccessToken() throws Exception {
+        final RoleIndex roleIndex = roleIndex("project-duck-simulator: developer");
+        final List<GitLabProjectSummary> gitLabProjects = List.of(new GitLabProjectSummary(1L, "project-duck-simulator", "group/project-duck-simulator", true, AccessLevel.OWNER));
+
+        when(gitLabUser.getId()).thenReturn(7);
+        when(gitLabClient.tokenOwnerId(PERSONAL_ACCESS_TOKEN)).thenReturn(42L);
+        when(gitLabClient.projectMembershipInfo(PERSONAL_ACCESS_TOKEN, 1L, 7L)).thenReturn(new MembershipInfo(7L, "bob", AccessLevel.DEVELOPER));
+
+        final BitSet grantedRoles = grantRoles(gitLabProjects, roleIndex);
+
+        assertTrue(grantedRoles.get(0));
+        verify(gitLabClient).projectMembershipInfo(PERSONAL_ACCESS_TOKEN, 1L, 7L);
+    }
+
+    private BitSet grantRoles(List<GitLabProjectSummary> gitLabProjects, RoleIndex roleIndex) throws IOException {
+        final BitSet grantedRoles = new BitSet();
+        projectMembershipChecker.grantRoles(gitLabUser, gitLabProjects, roleIndex, grantedRoles, new MembershipLookups(gitLabClient, PERSONAL_ACCESS_TOKEN, MemberIndex.NONE));
+        return grantedRoles;
+    }
+
+    private static RoleIndex roleIndex(String projects) {
+        return RoleIndex.of(List.of(GitLabRole.fromJSON("{\"name\": \"some-role\", \"configuration\": {\"Projects\": \"" + projects + "\"}}")));
+    }
+}
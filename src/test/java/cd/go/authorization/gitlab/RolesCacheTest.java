@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab;
+
+import cd.go.authorization.gitlab.models.GitLabRole;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RolesCacheTest {
+    private static final Duration TTL = Duration.ofMinutes(5);
+
+    private MutableClock clock;
+    private RolesCache rolesCache;
+
+    @BeforeEach
+    public void setUp() {
+        clock = new MutableClock();
+        rolesCache = new RolesCache(clock);
+    }
+
+    @Test
+    public void shouldReturnCachedDecisionUntilItExpires() {
+        rolesCache.put("auth-config", "key", true, Duration.ZERO, TTL, 10);
+
+        assertThat(rolesCache.get("auth-config", "key").isGranted()).isTrue();
+
+        clock.advance(TTL);
+
+        assertThat(rolesCache.get("auth-config", "key")).isNull();
+        assertThat(rolesCache.hits()).isEqualTo(1);
+        assertThat(rolesCache.misses()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReportDecisionAsStaleAfterRefreshTimeUntilItExpires() {
+        rolesCache.put("auth-config", "key", true, Duration.ofMinutes(1), TTL, 10);
+
+        assertThat(rolesCache.get("auth-config", "key").isStale()).isFalse();
+
+        clock.advance(Duration.ofMinutes(1));
+
+        assertThat(rolesCache.get("auth-config", "key").isStale()).isTrue();
+        assertThat(rolesCache.get("auth-config", "key").isGranted()).isTrue();
+
+        clock.advance(Duration.ofMinutes(4));
+
+        assertThat(rolesCache.get("auth-config", "key")).isNull();
+    }
+
+    @Test
+    public void shouldAllowOnlyOneRefreshOfADecisionAtATime() {
+        rolesCache.put("auth-config", "key", true, Duration.ofMinutes(1), TTL, 10);
+
+        assertThat(rolesCache.startRefresh("auth-config", "key")).isTrue();
+        assertThat(rolesCache.startRefresh("auth-config", "key")).isFalse();
+
+        rolesCache.refreshFailed("auth-config", "key");
+        assertThat(rolesCache.startRefresh("auth-config", "key")).isTrue();
+
+        rolesCache.put("auth-config", "key", false, Duration.ofMinutes(1), TTL, 10);
+        assertThat(rolesCache.startRefresh("auth-config", "key")).isTrue();
+        assertThat(rolesCache.startRefresh("auth-config", "missing")).isFalse();
+    }
+
+    @Test
+    public void shouldCacheDecisionsPerAuthConfig() {
+        rolesCache.put("auth-config", "key", false, Duration.ZERO, TTL, 10);
+
+        assertThat(rolesCache.get("auth-config", "key").isGranted()).isFalse();
+        assertThat(rolesCache.get("other-auth-config", "key")).isNull();
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedDecisionsBeyondMaxSize() {
+        rolesCache.put("auth-config", "a", true, Duration.ZERO, TTL, 2);
+        rolesCache.put("auth-config", "b", true, Duration.ZERO, TTL, 2);
+        rolesCache.get("auth-config", "a");
+        rolesCache.put("auth-config", "c", true, Duration.ZERO, TTL, 2);
+
+        assertThat(rolesCache.size()).isEqualTo(2);
+        assertThat(rolesCache.get("auth-config", "a").isGranted()).isTrue();
+        assertThat(rolesCache.get("auth-config", "b")).isNull();
+        assertThat(rolesCache.get("auth-config", "c").isGranted()).isTrue();
+    }
+
+    @Test
+    public void shouldOnlyChangeKeyOfRoleWhoseConfigurationChanged() {
+        final String fingerprint = "auth-config-fingerprint";
+        final GitLabRole role = GitLabRole.fromJSON("{\"name\": \"admins\", \"configuration\": {\"Groups\": \"group-a\"}}");
+        final GitLabRole changedRole = GitLabRole.fromJSON("{\"name\": \"admins\", \"configuration\": {\"Groups\": \"group-a: owner\"}}");
+
+        assertThat(RolesCache.key(fingerprint, 7, role)).isEqualTo(RolesCache.key(fingerprint, 7, GitLabRole.fromJSON("{\"name\": \"admins\", \"configuration\": {\"Groups\": \"group-a\"}}")));
+        assertThat(RolesCache.key(fingerprint, 7, role)).isNotEqualTo(RolesCache.key(fingerprint, 7, changedRole));
+        assertThat(RolesCache.key(fingerprint, 7, role)).isNotEqualTo(RolesCache.key(fingerprint, 8, role));
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2022-01-01T00:00:00Z");
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.AuditEvent;
+import cd.go.authorization.gitlab.client.models.AuditEvents;
+import cd.go.authorization.gitlab.client.models.GitLabGroupSummary;
+import cd.go.authorization.gitlab.client.models.GitLabProjectSummary;
+import cd.go.authorization.gitlab.client.models.MembershipInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.*;
+
+public class GitLabCatalogTest {
+    private static final String PERSONAL_ACCESS_TOKEN = "some-random-token";
+    private static final Duration REFRESH_INTERVAL = Duration.ofMinutes(10);
+    private static final Duration SYNC_INTERVAL = Duration.ofSeconds(30);
+    private static final int LOGINS = 200;
+
+    private GitLabClient gitLabClient;
+    private List<Runnable> refreshes;
+
+    @BeforeEach
+    public void setUp() {
+        gitLabClient = mock(GitLabClient.class);
+        when(gitLabClient.credentialsKey(PERSONAL_ACCESS_TOKEN)).thenReturn("https://gitlab.com|token");
+        refreshes = new ArrayList<>();
+    }
+
+    @Test
+    public void shouldListGroupsOnceForABurstOfConcurrentLogins() throws Exception {
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(Clock.systemUTC(), refreshes::add);
+        final CountDownLatch start = new CountDownLatch(1);
+        when(gitLabClient.groups(PERSONAL_ACCESS_TOKEN)).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            return List.of(new GitLabGroupSummary(1L, "group-a"));
+        });
+
+        final ExecutorService logins = Executors.newFixedThreadPool(32);
+        try {
+            final List<Future<List<GitLabGroupSummary>>> results = new ArrayList<>();
+            for (int i = 0; i < LOGINS; i++) {
+                results.add(logins.submit(() -> {
+                    start.await();
+                    return gitLabCatalog.groups(gitLabClient, PERSONAL_ACCESS_TOKEN, REFRESH_INTERVAL);
+                }));
+            }
+            start.countDown();
+
+            for (Future<List<GitLabGroupSummary>> result : results) {
+                assertThat(result.get()).extracting(GitLabGroupSummary::getName).containsExactly("group-a");
+            }
+        } finally {
+            logins.shutdownNow();
+        }
+
+        verify(gitLabClient, times(1)).groups(PERSONAL_ACCESS_TOKEN);
+    }
+
+    @Test
+    public void shouldServeStaleListingWhileRefreshingItInTheBackground() throws Exception {
+        final MutableClock clock = new MutableClock();
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(clock, refreshes::add);
+        when(gitLabClient.projects(PERSONAL_ACCESS_TOKEN, ProjectsFilter.NONE))
+                .thenReturn(List.of(new GitLabProjectSummary(1L, "project-a")))
+                .thenReturn(List.of(new GitLabProjectSummary(2L, "project-b")));
+
+        gitLabCatalog.projects(gitLabClient, PERSONAL_ACCESS_TOKEN, ProjectsFilter.NONE, REFRESH_INTERVAL);
+        clock.advance(REFRESH_INTERVAL);
+
+        assertThat(gitLabCatalog.projects(gitLabClient, PERSONAL_ACCESS_TOKEN, ProjectsFilter.NONE, REFRESH_INTERVAL))
+                .extracting(GitLabProjectSummary::getName).containsExactly("project-a");
+        assertThat(gitLabCatalog.projects(gitLabClient, PERSONAL_ACCESS_TOKEN, ProjectsFilter.NONE, REFRESH_INTERVAL))
+                .extracting(GitLabProjectSummary::getName).containsExactly("project-a");
+        assertThat(refreshes).hasSize(1);
+
+        refreshes.get(0).run();
+
+        assertThat(gitLabCatalog.projects(gitLabClient, PERSONAL_ACCESS_TOKEN, ProjectsFilter.NONE, REFRESH_INTERVAL))
+                .extracting(GitLabProjectSummary::getName).containsExactly("project-b");
+        verify(gitLabClient, times(2)).projects(PERSONAL_ACCESS_TOKEN, ProjectsFilter.NONE);
+    }
+
+    @Test
+    public void shouldKeepListingsWithDifferentFiltersApart() throws Exception {
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(Clock.systemUTC(), refreshes::add);
+        final ProjectsFilter membership = ProjectsFilter.membership(null);
+        when(gitLabClient.projects(PERSONAL_ACCESS_TOKEN, ProjectsFilter.NONE)).thenReturn(List.of(new GitLabProjectSummary(1L, "project-a")));
+        when(gitLabClient.projects(PERSONAL_ACCESS_TOKEN, membership)).thenReturn(List.of());
+
+        assertThat(gitLabCatalog.projects(gitLabClient, PERSONAL_ACCESS_TOKEN, ProjectsFilter.NONE, REFRESH_INTERVAL)).hasSize(1);
+        assertThat(gitLabCatalog.projects(gitLabClient, PERSONAL_ACCESS_TOKEN, membership, REFRESH_INTERVAL)).isEmpty();
+    }
+
+    @Test
+    public void shouldIndexGroupMembersByUserId() throws Exception {
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(Clock.systemUTC(), refreshes::add);
+        when(gitLabClient.groupMembers(PERSONAL_ACCESS_TOKEN, 1L)).thenReturn(List.of(
+                new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER),
+                new MembershipInfo(20L, "bar-user", AccessLevel.MASTER)));
+
+        final Map<Long, AccessLevel> members = gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO);
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO);
+
+        assertThat(members).containsOnly(entry(10L, AccessLevel.DEVELOPER), entry(20L, AccessLevel.MASTER));
+        verify(gitLabClient, times(1)).groupMembers(PERSONAL_ACCESS_TOKEN, 1L);
+    }
+
+    @Test
+    public void shouldKeepMembersOfGroupsAndProjectsWithTheSameIdApart() throws Exception {
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(Clock.systemUTC(), refreshes::add);
+        when(gitLabClient.groupMembers(PERSONAL_ACCESS_TOKEN, 1L)).thenReturn(List.of(new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER)));
+        when(gitLabClient.projectMembers(PERSONAL_ACCESS_TOKEN, 1L)).thenReturn(List.of());
+
+        assertThat(gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO)).containsKey(10L);
+        assertThat(gitLabCatalog.projectMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO)).isEmpty();
+    }
+
+    @Test
+    public void shouldApplyMembershipChangesFromAuditEventsBetweenRefreshes() throws Exception {
+        final MutableClock clock = new MutableClock();
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(clock, refreshes::add);
+        final Instant loadedAt = clock.instant();
+        when(gitLabClient.pageSize()).thenReturn(100);
+        when(gitLabClient.groupMembers(PERSONAL_ACCESS_TOKEN, 1L)).thenReturn(List.of(
+                new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER),
+                new MembershipInfo(20L, "bar-user", AccessLevel.GUEST)));
+        when(gitLabClient.groupAuditEvents(PERSONAL_ACCESS_TOKEN, 1L, null)).thenReturn(new AuditEvents(List.of(), loadedAt));
+        when(gitLabClient.groupAuditEvents(PERSONAL_ACCESS_TOKEN, 1L, loadedAt.minus(GitLabCatalog.SYNC_MARGIN))).thenReturn(new AuditEvents(List.of(
+                new AuditEvent(3, AuditEvent.Details.accessLevelChanged(20L, "Guest", "Maintainer")),
+                new AuditEvent(2, AuditEvent.Details.memberAdded(30L, "Default role: Reporter")),
+                new AuditEvent(1, AuditEvent.Details.memberRemoved(10L))), loadedAt));
+
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+        clock.advance(SYNC_INTERVAL);
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+        refreshes.get(0).run();
+
+        assertThat(gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL))
+                .containsOnly(entry(20L, AccessLevel.MASTER), entry(30L, AccessLevel.REPORTER));
+        verify(gitLabClient, times(1)).groupMembers(PERSONAL_ACCESS_TOKEN, 1L);
+    }
+
+    @Test
+    public void shouldListMembersAgainWhenChangesDoNotFitInOnePage() throws Exception {
+        final MutableClock clock = new MutableClock();
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(clock, refreshes::add);
+        when(gitLabClient.pageSize()).thenReturn(1);
+        when(gitLabClient.projectMembers(PERSONAL_ACCESS_TOKEN, 1L))
+                .thenReturn(List.of(new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER)))
+                .thenReturn(List.of());
+        when(gitLabClient.projectAuditEvents(eq(PERSONAL_ACCESS_TOKEN), eq(1L), any()))
+                .thenReturn(new AuditEvents(List.of(new AuditEvent(1, AuditEvent.Details.memberRemoved(10L))), clock.instant()));
+
+        gitLabCatalog.projectMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+        clock.advance(SYNC_INTERVAL);
+        gitLabCatalog.projectMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+        refreshes.get(0).run();
+
+        assertThat(gitLabCatalog.projectMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL)).isEmpty();
+        verify(gitLabClient, times(2)).projectMembers(PERSONAL_ACCESS_TOKEN, 1L);
+    }
+
+    @Test
+    public void shouldSyncMembersFromTheTimeOfGitLabWhenThePluginClockIsAhead() throws Exception {
+        final MutableClock clock = new MutableClock();
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(clock, refreshes::add);
+        final Instant gitLabTime = clock.instant().minus(Duration.ofMinutes(5));
+        when(gitLabClient.pageSize()).thenReturn(100);
+        when(gitLabClient.groupMembers(PERSONAL_ACCESS_TOKEN, 1L)).thenReturn(List.of(
+                new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER),
+                new MembershipInfo(20L, "bar-user", AccessLevel.GUEST)));
+        when(gitLabClient.groupAuditEvents(PERSONAL_ACCESS_TOKEN, 1L, null)).thenReturn(new AuditEvents(List.of(), gitLabTime));
+        // GitLab only returns events created after the given time, by its own clock
+        when(gitLabClient.groupAuditEvents(eq(PERSONAL_ACCESS_TOKEN), eq(1L), argThat(since -> since != null && since.isBefore(gitLabTime.plusSeconds(10)))))
+                .thenReturn(new AuditEvents(List.of(new AuditEvent(1, gitLabTime.plusSeconds(10).toString(), AuditEvent.Details.memberRemoved(10L))), gitLabTime.plusSeconds(30)));
+
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+        clock.advance(SYNC_INTERVAL);
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+        refreshes.get(0).run();
+
+        assertThat(gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL)).containsOnly(entry(20L, AccessLevel.GUEST));
+        verify(gitLabClient).groupAuditEvents(PERSONAL_ACCESS_TOKEN, 1L, gitLabTime.minus(GitLabCatalog.SYNC_MARGIN));
+    }
+
+    @Test
+    public void shouldStopSyncingMembersWhenAuditEventsAreNotAvailable() throws Exception {
+        final MutableClock clock = new MutableClock();
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(clock, refreshes::add);
+        when(gitLabClient.groupMembers(PERSONAL_ACCESS_TOKEN, 1L)).thenReturn(List.of(new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER)));
+        when(gitLabClient.groupAuditEvents(eq(PERSONAL_ACCESS_TOKEN), eq(1L), any())).thenReturn(null);
+
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+        clock.advance(SYNC_INTERVAL);
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+        clock.advance(REFRESH_INTERVAL);
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+        refreshes.get(0).run();
+        clock.advance(SYNC_INTERVAL);
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, SYNC_INTERVAL);
+
+        assertThat(refreshes).hasSize(1);
+        verify(gitLabClient, times(1)).groupAuditEvents(eq(PERSONAL_ACCESS_TOKEN), eq(1L), any());
+        verify(gitLabClient, times(2)).groupMembers(PERSONAL_ACCESS_TOKEN, 1L);
+    }
+
+    @Test
+    public void shouldServeRestoredMembersWhileListingThemAgainInTheBackground() throws Exception {
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(Clock.systemUTC(), refreshes::add);
+        when(gitLabClient.groupMembers(PERSONAL_ACCESS_TOKEN, 1L))
+                .thenReturn(List.of(new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER)))
+                .thenReturn(List.of());
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO);
+        final ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        gitLabCatalog.writeMembersTo(new DataOutputStream(snapshot));
+
+        final GitLabCatalog restoredCatalog = new GitLabCatalog(Clock.systemUTC(), refreshes::add);
+        assertThat(restoredCatalog.readMembersFrom(new DataInputStream(new ByteArrayInputStream(snapshot.toByteArray())))).isEqualTo(1);
+
+        assertThat(restoredCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO)).containsOnly(entry(10L, AccessLevel.DEVELOPER));
+        assertThat(refreshes).hasSize(1);
+
+        refreshes.get(0).run();
+
+        assertThat(restoredCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO)).isEmpty();
+    }
+
+    @Test
+    public void shouldListMembersInTheBackgroundWhenNotWaitingForThem() throws Exception {
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(Clock.systemUTC(), refreshes::add);
+        when(gitLabClient.projectMembers(PERSONAL_ACCESS_TOKEN, 1L)).thenReturn(List.of(new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER)));
+
+        assertThat(gitLabCatalog.loadedProjectMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO)).isNull();
+        assertThat(gitLabCatalog.loadedProjectMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO)).isNull();
+        assertThat(refreshes).hasSize(1);
+        verify(gitLabClient, never()).projectMembers(PERSONAL_ACCESS_TOKEN, 1L);
+
+        refreshes.get(0).run();
+
+        assertThat(gitLabCatalog.loadedProjectMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO)).containsOnly(entry(10L, AccessLevel.DEVELOPER));
+        verify(gitLabClient, times(1)).projectMembers(PERSONAL_ACCESS_TOKEN, 1L);
+    }
+
+    @Test
+    public void shouldDropListingsNotUsedForTwoRefreshIntervals() throws Exception {
+        final MutableClock clock = new MutableClock();
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(clock, refreshes::add);
+        when(gitLabClient.groupMembers(eq(PERSONAL_ACCESS_TOKEN), anyLong())).thenReturn(List.of(new MembershipInfo(10L, "foo-user", AccessLevel.DEVELOPER)));
+
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO);
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 2L, REFRESH_INTERVAL, Duration.ZERO);
+        clock.advance(REFRESH_INTERVAL.multipliedBy(2).minus(GitLabCatalog.EVICTION_INTERVAL));
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 2L, REFRESH_INTERVAL, Duration.ZERO);
+        clock.advance(GitLabCatalog.EVICTION_INTERVAL);
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 3L, REFRESH_INTERVAL, Duration.ZERO);
+
+        final ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        gitLabCatalog.writeMembersTo(new DataOutputStream(snapshot));
+        assertThat(new GitLabCatalog(clock, refreshes::add).readMembersFrom(new DataInputStream(new ByteArrayInputStream(snapshot.toByteArray())))).isEqualTo(2);
+
+        gitLabCatalog.groupMembers(gitLabClient, PERSONAL_ACCESS_TOKEN, 1L, REFRESH_INTERVAL, Duration.ZERO);
+        verify(gitLabClient, times(2)).groupMembers(PERSONAL_ACCESS_TOKEN, 1L);
+        verify(gitLabClient, times(1)).groupMembers(PERSONAL_ACCESS_TOKEN, 2L);
+    }
+
+    @Test
+    public void shouldLoadAgainAfterAFailedLoad() throws Exception {
+        final GitLabCatalog gitLabCatalog = new GitLabCatalog(Clock.systemUTC(), refreshes::add);
+        when(gitLabClient.groups(PERSONAL_ACCESS_TOKEN))
+                .thenThrow(new RuntimeException("Api call to `/api/v4/groups` failed with error: `502 Bad Gateway`"))
+                .thenReturn(List.of(new GitLabGroupSummary(1L, "group-a")));
+
+        assertThatThrownBy(() -> gitLabCatalog.groups(gitLabClient, PERSONAL_ACCESS_TOKEN, REFRESH_INTERVAL))
+                .hasMessageContaining("502 Bad Gateway");
+        assertThat(gitLabCatalog.groups(gitLabClient, PERSONAL_ACCESS_TOKEN, REFRESH_INTERVAL)).hasSize(1);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2022-01-01T00:00:00Z");
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
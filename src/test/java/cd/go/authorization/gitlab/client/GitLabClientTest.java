@@ -21,21 +21,33 @@ import cd.go.authorization.gitlab.client.models.*;
 import cd.go.authorization.gitlab.models.AuthenticateWith;
 import cd.go.authorization.gitlab.models.GitLabConfiguration;
 import cd.go.authorization.gitlab.models.TokenInfo;
+import mockwebserver3.Dispatcher;
 import mockwebserver3.MockResponse;
 import mockwebserver3.MockWebServer;
 import mockwebserver3.RecordedRequest;
 import mockwebserver3.junit5.StartStop;
 import mockwebserver3.junit5.internal.StartStopExtension;
+import okhttp3.OkHttpClient;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -150,13 +162,13 @@ public class GitLabClientTest {
 
         when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
 
-        final List<GitLabGroup> gitLabGroups = gitLabClient.groups(personalAccessToken);
+        final List<GitLabGroupSummary> gitLabGroups = gitLabClient.groups(personalAccessToken);
 
         assertThat(gitLabGroups).hasSize(1);
         assertThat(gitLabGroups.get(0).getName()).isEqualTo("foo-group");
 
         RecordedRequest request = server.takeRequest();
-        assertEquals("GET /api/v4/groups HTTP/1.1", request.getRequestLine());
+        assertEquals("GET /api/v4/groups?per_page=100 HTTP/1.1", request.getRequestLine());
         assertNotNull(request.getHeaders().get("Private-Token"));
         assertEquals(personalAccessToken, request.getHeaders().get("Private-Token"));
     }
@@ -177,19 +189,98 @@ public class GitLabClientTest {
 
         when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
 
-        final List<GitLabGroup> gitLabGroups = gitLabClient.groups(personalAccessToken);
+        final List<GitLabGroupSummary> gitLabGroups = gitLabClient.groups(personalAccessToken);
 
         assertThat(gitLabGroups).hasSize(2);
         assertThat(gitLabGroups.get(0).getName()).isEqualTo("foo-group");
         assertThat(gitLabGroups.get(1).getName()).isEqualTo("bar-group");
 
         RecordedRequest request = server.takeRequest();
-        assertEquals("GET /api/v4/groups HTTP/1.1", request.getRequestLine());
+        assertEquals("GET /api/v4/groups?per_page=100 HTTP/1.1", request.getRequestLine());
         assertNotNull(request.getHeaders().get("Private-Token"));
         assertEquals(personalAccessToken, request.getHeaders().get("Private-Token"));
     }
 
 
+    @Test
+    public void shouldFetchGroupsWithMinimumAccessLevel() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body(GSON.toJson(List.of(new GitLabGroup(1L, "foo-group"))))
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final List<GitLabGroupSummary> gitLabGroups = gitLabClient.groups("some-random-token", AccessLevel.DEVELOPER);
+
+        assertThat(gitLabGroups).extracting(GitLabGroupSummary::getId).containsExactly(1L);
+        assertEquals("GET /api/v4/groups?min_access_level=30&per_page=100 HTTP/1.1", server.takeRequest().getRequestLine());
+    }
+
+    @Test
+    public void shouldFetchRemainingPagesInParallelWhenTotalPagesIsKnown() throws Exception {
+        final String personalAccessToken = "some-random-token";
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                final String page = request.getUrl().queryParameter("page");
+                final int pageNumber = page == null ? 1 : Integer.parseInt(page);
+                return new MockResponse.Builder()
+                        .code(200)
+                        .addHeader("x-total-pages", "4")
+                        .addHeader("x-next-page", pageNumber < 4 ? String.valueOf(pageNumber + 1) : "")
+                        // respond to earlier pages slower, so that responses arrive out of order
+                        .headersDelay((4 - pageNumber) * 50L, TimeUnit.MILLISECONDS)
+                        .body(GSON.toJson(List.of(new GitLabGroup(pageNumber, "group-" + pageNumber))))
+                        .build();
+            }
+        });
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final List<GitLabGroupSummary> gitLabGroups = gitLabClient.groups(personalAccessToken);
+
+        assertThat(gitLabGroups).extracting(GitLabGroupSummary::getName).containsExactly("group-1", "group-2", "group-3", "group-4");
+        assertThat(server.getRequestCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldFetchAtMostALimitedNumberOfPagesInParallel() throws Exception {
+        final String personalAccessToken = "some-random-token";
+        final int totalPages = 12;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                final String page = request.getUrl().queryParameter("page");
+                final int pageNumber = page == null ? 1 : Integer.parseInt(page);
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(50);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+                return new MockResponse.Builder()
+                        .code(200)
+                        .addHeader("x-total-pages", String.valueOf(totalPages))
+                        .addHeader("x-next-page", pageNumber < totalPages ? String.valueOf(pageNumber + 1) : "")
+                        .body(GSON.toJson(List.of(new GitLabGroup(pageNumber, "group-" + pageNumber))))
+                        .build();
+            }
+        });
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final List<GitLabGroupSummary> gitLabGroups = gitLabClient.groups(personalAccessToken);
+
+        assertThat(gitLabGroups).extracting(GitLabGroupSummary::getName)
+                .containsExactlyElementsOf(IntStream.rangeClosed(1, totalPages).mapToObj(page -> "group-" + page).toList());
+        assertThat(server.getRequestCount()).isEqualTo(totalPages);
+        assertThat(maxInFlight.get()).isGreaterThan(1).isLessThanOrEqualTo(GitLabClient.MAX_PARALLEL_PAGES);
+    }
+
+
     @Test
     public void shouldFetchProjectsForAUser() throws Exception {
         final String personalAccessToken = "some-random-token";
@@ -200,13 +291,13 @@ public class GitLabClientTest {
 
         when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
 
-        final List<GitLabProject> gitLabProjects = gitLabClient.projects(personalAccessToken);
+        final List<GitLabProjectSummary> gitLabProjects = gitLabClient.projects(personalAccessToken);
 
         assertThat(gitLabProjects).hasSize(1);
         assertThat(gitLabProjects.get(0).getName()).isEqualTo("foo-project");
 
         RecordedRequest request = server.takeRequest();
-        assertEquals("GET /api/v4/projects HTTP/1.1", request.getRequestLine());
+        assertEquals("GET /api/v4/projects?per_page=100 HTTP/1.1", request.getRequestLine());
         assertNotNull(request.getHeaders().get("Private-Token"));
         assertEquals(personalAccessToken, request.getHeaders().get("Private-Token"));
     }
@@ -228,19 +319,93 @@ public class GitLabClientTest {
 
         when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
 
-        final List<GitLabProject> gitLabProjects = gitLabClient.projects(personalAccessToken);
+        final List<GitLabProjectSummary> gitLabProjects = gitLabClient.projects(personalAccessToken);
 
         assertThat(gitLabProjects).hasSize(2);
         assertThat(gitLabProjects.get(0).getName()).isEqualTo("foo-project");
         assertThat(gitLabProjects.get(1).getName()).isEqualTo("bar-project");
 
         RecordedRequest request = server.takeRequest();
-        assertEquals("GET /api/v4/projects HTTP/1.1", request.getRequestLine());
+        assertEquals("GET /api/v4/projects?per_page=100 HTTP/1.1", request.getRequestLine());
         assertNotNull(request.getHeaders().get("Private-Token"));
         assertEquals(personalAccessToken, request.getHeaders().get("Private-Token"));
     }
 
 
+    @Test
+    public void shouldRequestConfiguredPageSize() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body(GSON.toJson(List.of(new GitLabGroup(1L, "foo-group"))))
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        when(gitLabConfiguration.pageSize()).thenReturn(50);
+
+        gitLabClient.groups("some-random-token");
+
+        assertEquals("GET /api/v4/groups?per_page=50 HTTP/1.1", server.takeRequest().getRequestLine());
+    }
+
+    @Test
+    public void shouldFetchProjectsUsingKeysetPaginationWhenEnabled() throws Exception {
+        final String personalAccessToken = "some-random-token";
+        final String nextLink = server.url("/api/v4/projects?id_after=1&order_by=id&pagination=keyset&per_page=100&sort=asc").toString();
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .addHeader("Link", "<" + nextLink + ">; rel=\"next\"")
+                .body(GSON.toJson(List.of(new GitLabProject(1L, "foo-project"))))
+                .build());
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body(GSON.toJson(List.of(new GitLabProject(2L, "bar-project"))))
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        when(gitLabConfiguration.keysetPagination()).thenReturn(true);
+
+        final List<GitLabProjectSummary> gitLabProjects = gitLabClient.projects(personalAccessToken);
+
+        assertThat(gitLabProjects).extracting(GitLabProjectSummary::getName).containsExactly("foo-project", "bar-project");
+        assertEquals("GET /api/v4/projects?pagination=keyset&order_by=id&sort=asc&per_page=100 HTTP/1.1", server.takeRequest().getRequestLine());
+        final RecordedRequest secondPage = server.takeRequest();
+        assertEquals("GET /api/v4/projects?id_after=1&order_by=id&pagination=keyset&per_page=100&sort=asc HTTP/1.1", secondPage.getRequestLine());
+        assertEquals(personalAccessToken, secondPage.getHeaders().get("Private-Token"));
+    }
+
+    @Test
+    public void shouldFetchOnlyProjectsTheTokenOwnerIsAMemberOf() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body(GSON.toJson(List.of(new GitLabProject(1L, "foo-project"))))
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final List<GitLabProjectSummary> gitLabProjects = gitLabClient.projects("some-random-token", ProjectsFilter.membership(AccessLevel.DEVELOPER));
+
+        assertThat(gitLabProjects).extracting(GitLabProjectSummary::getName).containsExactly("foo-project");
+        assertEquals("GET /api/v4/projects?membership=true&simple=true&min_access_level=30&per_page=100 HTTP/1.1", server.takeRequest().getRequestLine());
+    }
+
+    @Test
+    public void shouldNotFollowNextLinkToAnotherHost() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .addHeader("Link", "<https://attacker.example.com/api/v4/projects?id_after=1>; rel=\"next\"")
+                .body(GSON.toJson(List.of(new GitLabProject(1L, "foo-project"))))
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        when(gitLabConfiguration.keysetPagination()).thenReturn(true);
+
+        final List<GitLabProjectSummary> gitLabProjects = gitLabClient.projects("some-random-token");
+
+        assertThat(gitLabProjects).hasSize(1);
+        assertThat(server.getRequestCount()).isEqualTo(1);
+    }
+
+
     @Test
     public void shouldFetchGroupMembershipForAUser() throws Exception {
         final String personalAccessToken = "some-random-token";
@@ -285,6 +450,101 @@ public class GitLabClientTest {
         assertEquals(personalAccessToken, request.getHeaders().get("Private-Token"));
     }
 
+    @Test
+    public void shouldTreatNotFoundMembershipAsNotAMemberAndCacheIt() throws Exception {
+        server.enqueue(new MockResponse.Builder().code(404).body("{\"message\":\"404 Not found\"}").build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        when(gitLabConfiguration.nonMembershipCacheTTLInSeconds()).thenReturn(60L);
+        final GitLabClient client = new GitLabClient(gitLabConfiguration, new OkHttpClient(), null, new MembershipCache(Clock.systemUTC(), 10));
+
+        assertThat(client.groupMembershipInfo("some-random-token", 1L, 1L).getAccessLevel()).isNull();
+        assertThat(client.groupMembershipInfo("some-random-token", 1L, 1L).getAccessLevel()).isNull();
+        assertThat(server.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCacheMembershipsOnlyWhenEnabled() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse.Builder()
+                    .code(200)
+                    .body(new MembershipInfo(1L, "foo-user", AccessLevel.DEVELOPER).toJSON())
+                    .build());
+        }
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        final GitLabClient client = new GitLabClient(gitLabConfiguration, new OkHttpClient(), null, new MembershipCache(Clock.systemUTC(), 10));
+
+        client.projectMembershipInfo("some-random-token", 1L, 1L);
+        client.projectMembershipInfo("some-random-token", 1L, 1L);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+
+        when(gitLabConfiguration.membershipCacheTTLInSeconds()).thenReturn(60L);
+        assertThat(client.projectMembershipInfo("some-random-token", 1L, 1L).getAccessLevel()).isEqualTo(AccessLevel.DEVELOPER);
+        assertThat(client.projectMembershipInfo("some-random-token", 1L, 1L).getAccessLevel()).isEqualTo(AccessLevel.DEVELOPER);
+        assertThat(server.getRequestCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldFetchDirectMembersOfAGroup() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body("[" + new MembershipInfo(1L, "foo-user", AccessLevel.DEVELOPER).toJSON() + "," + new MembershipInfo(2L, "bar-user", AccessLevel.OWNER).toJSON() + "]")
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final List<MembershipInfo> members = gitLabClient.groupMembers("some-random-token", 1L);
+
+        assertThat(members).extracting(MembershipInfo::getUsername).containsExactly("foo-user", "bar-user");
+        assertThat(members).extracting(MembershipInfo::getAccessLevel).containsExactly(AccessLevel.DEVELOPER, AccessLevel.OWNER);
+        assertEquals("GET /api/v4/groups/1/members?per_page=100 HTTP/1.1", server.takeRequest().getRequestLine());
+    }
+
+    @Test
+    public void shouldFetchAuditEventsOfAGroupSinceTheGivenTime() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body("[{\"id\":2,\"author_id\":1,\"entity_id\":1,\"entity_type\":\"Group\",\"details\":{\"change\":\"access_level\",\"from\":\"Guest\",\"to\":\"Maintainer\",\"target_id\":10,\"target_type\":\"User\"}}," +
+                        "{\"id\":1,\"author_id\":1,\"entity_id\":1,\"entity_type\":\"Group\",\"details\":{\"change\":\"visibility\",\"from\":\"Private\",\"to\":\"Internal\"}}]")
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final List<AuditEvent> auditEvents = gitLabClient.groupAuditEvents("some-random-token", 1L, Instant.parse("2022-01-01T00:00:00Z")).events();
+
+        assertThat(auditEvents).extracting(AuditEvent::isMembershipChange).containsExactly(true, false);
+        assertThat(auditEvents.get(0).getMemberId()).isEqualTo(10L);
+        assertThat(auditEvents.get(0).getAccessLevel()).isEqualTo(AccessLevel.MASTER);
+        assertEquals("GET /api/v4/groups/1/audit_events?created_after=2022-01-01T00%3A00%3A00Z&per_page=100 HTTP/1.1", server.takeRequest().getRequestLine());
+    }
+
+    @Test
+    public void shouldTellUpToWhichTimeOfGitLabAuditEventsAreComplete() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .addHeader("Date", "Sat, 01 Jan 2022 00:05:00 GMT")
+                .body("[{\"id\":2,\"created_at\":\"2022-01-01T00:01:30.000Z\",\"details\":{\"remove\":\"user_access\",\"target_id\":10}}," +
+                        "{\"id\":1,\"created_at\":\"2022-01-01T00:01:00.000Z\",\"details\":{\"add\":\"user_access\",\"as\":\"Developer\",\"target_id\":10}}]")
+                .build());
+        server.enqueue(new MockResponse.Builder().code(200).addHeader("Date", "Sat, 01 Jan 2022 00:06:00 GMT").body("[]").build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        assertThat(gitLabClient.groupAuditEvents("some-random-token", 1L, null).until()).isEqualTo(Instant.parse("2022-01-01T00:01:30Z"));
+        assertThat(gitLabClient.groupAuditEvents("some-random-token", 1L, Instant.parse("2022-01-01T00:01:30Z")).until()).isEqualTo(Instant.parse("2022-01-01T00:06:00Z"));
+        assertEquals("GET /api/v4/groups/1/audit_events?per_page=100 HTTP/1.1", server.takeRequest().getRequestLine());
+    }
+
+    @Test
+    public void shouldReturnNullWhenAuditEventsAreNotAvailable() throws Exception {
+        server.enqueue(new MockResponse.Builder().code(403).body("{\"message\":\"403 Forbidden\"}").build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        assertThat(gitLabClient.projectAuditEvents("some-random-token", 1L, Instant.parse("2022-01-01T00:00:00Z"))).isNull();
+    }
+
     @Test
     public void shouldErrorOutWhenAPIRequestFails() {
         final TokenInfo tokenInfo = new TokenInfo("token-444248275346-5758603453985735", "bearer", 7200, "refresh-token");
@@ -297,4 +557,275 @@ public class GitLabClientTest {
                 .isInstanceOf(RuntimeException.class)
                 .hasMessage("Api call to `/api/v4/user` failed with error: `Unauthorized`");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldLookUpTokenOwnerOnlyOncePerToken() throws Exception {
+        final String personalAccessToken = "token-owner-lookup-token";
+        final GitLabUser tokenOwner = GSON.fromJson("{\"id\": 42, \"username\": \"bot\"}", GitLabUser.class);
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body(tokenOwner.toJSON())
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        assertThat(gitLabClient.tokenOwnerId(personalAccessToken)).isEqualTo(42L);
+        assertThat(gitLabClient.tokenOwnerId(personalAccessToken)).isEqualTo(42L);
+        assertThat(server.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLookUpGroupsByFullPathLeavingOutTheOnesNotFound() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getUrl().encodedPath().equals("/api/v4/groups/acme%2Fgroup-a")) {
+                    return new MockResponse.Builder().code(200).body("{\"id\":1,\"name\":\"group-a\",\"full_path\":\"acme/group-a\"}").build();
+                }
+                return new MockResponse.Builder().code(404).body("{\"message\":\"404 Group Not Found\"}").build();
+            }
+        });
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final List<GitLabGroupSummary> gitLabGroups = gitLabClient.groupsByPath("some-random-token", List.of("acme/group-a", "acme/missing"));
+
+        assertThat(gitLabGroups).extracting(GitLabGroupSummary::getFullPath).containsExactly("acme/group-a");
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(server.takeRequest().getUrl().queryParameter("with_projects")).isEqualTo("false");
+    }
+
+    @Test
+    public void shouldLookUpProjectsByFullPath() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body("{\"id\":2,\"name\":\"project-foo\",\"path_with_namespace\":\"acme/project-foo\",\"permissions\":{\"project_access\":{\"access_level\":30}}}")
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final List<GitLabProjectSummary> gitLabProjects = gitLabClient.projectsByPath("some-random-token", List.of("acme/project-foo"));
+
+        assertThat(gitLabProjects).extracting(GitLabProjectSummary::getId).containsExactly(2L);
+        assertThat(gitLabProjects.get(0).getProjectAccessLevel()).isEqualTo(AccessLevel.DEVELOPER);
+        assertEquals("GET /api/v4/projects/acme%2Fproject-foo HTTP/1.1", server.takeRequest().getRequestLine());
+    }
+
+    @Test
+    public void shouldFailPathLookupOnErrorsOtherThanNotFound() {
+        server.enqueue(new MockResponse.Builder().code(403).body("403 Forbidden").build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        assertThatThrownBy(() -> gitLabClient.groupsByPath("some-random-token", List.of("acme/group-a")))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessage("Api call to `/api/v4/groups/acme%2Fgroup-a` failed with error: `403 Forbidden`");
+    }
+
+    @Test
+    public void shouldRevalidateCachedPagesWithTheirETag() throws Exception {
+        final GitLabClient cachingClient = new GitLabClient(gitLabConfiguration, new OkHttpClient(), new PageCache(10));
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .addHeader("ETag", "W/\"groups-v1\"")
+                .body(GSON.toJson(List.of(new GitLabGroup(1L, "foo-group"))))
+                .build());
+        server.enqueue(new MockResponse.Builder().code(304).build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        cachingClient.groups("some-random-token");
+        final List<GitLabGroupSummary> revalidated = cachingClient.groups("some-random-token");
+
+        assertThat(revalidated).extracting(GitLabGroupSummary::getName).containsExactly("foo-group");
+        assertThat(server.takeRequest().getHeaders().get("If-None-Match")).isNull();
+        assertThat(server.takeRequest().getHeaders().get("If-None-Match")).isEqualTo("W/\"groups-v1\"");
+    }
+
+    @Test
+    public void shouldFetchUserProfileAsynchronously() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body(new GitLabUser("foo", "Foo Bar", "foo@bar.com").toJSON())
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final GitLabUser gitLabUser = gitLabClient.userAsync("some-random-token").get(5, TimeUnit.SECONDS);
+
+        assertThat(gitLabUser.getUsername()).isEqualTo("foo");
+        assertEquals("GET /api/v4/user HTTP/1.1", server.takeRequest().getRequestLine());
+    }
+
+    @Test
+    public void shouldFailAsynchronousCallsWithTheApiError() {
+        server.enqueue(new MockResponse.Builder().code(403).body("Unauthorized").build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        assertThatThrownBy(() -> gitLabClient.userAsync("some-random-token").get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasRootCauseMessage("Api call to `/api/v4/user` failed with error: `Unauthorized`");
+    }
+
+    @Test
+    public void shouldFetchAllPagesAsynchronously() throws Exception {
+        final String nextLink = server.url("/api/v4/projects?id_after=1&order_by=id&pagination=keyset&per_page=100&sort=asc").toString();
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .addHeader("Link", "<" + nextLink + ">; rel=\"next\"")
+                .body(GSON.toJson(List.of(new GitLabProject(1L, "foo-project"))))
+                .build());
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body(GSON.toJson(List.of(new GitLabProject(2L, "bar-project"))))
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        when(gitLabConfiguration.keysetPagination()).thenReturn(true);
+
+        final List<GitLabProjectSummary> gitLabProjects = gitLabClient.projectsAsync("some-random-token", ProjectsFilter.NONE).get(5, TimeUnit.SECONDS);
+
+        assertThat(gitLabProjects).extracting(GitLabProjectSummary::getName).containsExactly("foo-project", "bar-project");
+        assertThat(server.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldComposeWorkOnEveryPageAsItIsLoaded() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getUrl().encodedPath().contains("/members/")) {
+                    final long groupId = Long.parseLong(request.getUrl().pathSegments().get(3));
+                    return groupId % 2 == 0
+                            ? new MockResponse.Builder().code(200).body(new MembershipInfo(7L, "bob", AccessLevel.DEVELOPER).toJSON()).build()
+                            : new MockResponse.Builder().code(404).build();
+                }
+                final String page = request.getUrl().queryParameter("page");
+                final int pageNumber = page == null ? 1 : Integer.parseInt(page);
+                return new MockResponse.Builder()
+                        .code(200)
+                        .addHeader("x-total-pages", "3")
+                        .headersDelay((3 - pageNumber) * 50L, TimeUnit.MILLISECONDS)
+                        .body(GSON.toJson(List.of(new GitLabGroup(pageNumber * 2 - 1, "group-" + (pageNumber * 2 - 1)), new GitLabGroup(pageNumber * 2, "group-" + pageNumber * 2))))
+                        .build();
+            }
+        });
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        final List<List<MembershipInfo>> memberships = gitLabClient.<List<MembershipInfo>>groupsAsync("some-random-token", null, page -> {
+            final List<CompletableFuture<MembershipInfo>> lookups = page.stream()
+                    .map(group -> gitLabClient.groupMembershipInfoAsync("some-random-token", group.getId(), 7L))
+                    .collect(toList());
+            return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(ignored -> lookups.stream().map(CompletableFuture::join).collect(toList()));
+        }).get(5, TimeUnit.SECONDS);
+
+        assertThat(memberships).hasSize(3);
+        assertThat(memberships).allSatisfy(page -> {
+            assertThat(page.get(0).getAccessLevel()).isNull();
+            assertThat(page.get(1).getAccessLevel()).isEqualTo(AccessLevel.DEVELOPER);
+        });
+        assertThat(server.getRequestCount()).isEqualTo(9);
+    }
+
+    @Test
+    public void shouldCancelTheCallWhenAnAsynchronousLookupIsCancelled() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .headersDelay(5, TimeUnit.SECONDS)
+                .body(new MembershipInfo(1L, "foo-user", AccessLevel.DEVELOPER).toJSON())
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        final OkHttpClient httpClient = new OkHttpClient();
+        final GitLabClient client = new GitLabClient(gitLabConfiguration, httpClient, null, new MembershipCache(Clock.systemUTC(), 10));
+
+        final CompletableFuture<MembershipInfo> lookup = client.projectMembershipInfoAsync("some-random-token", 1L, 1L);
+        server.takeRequest();
+        lookup.cancel(true);
+
+        assertThat(lookup).isCancelled();
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (httpClient.dispatcher().runningCallsCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(httpClient.dispatcher().runningCallsCount()).isZero();
+    }
+
+    @Test
+    public void shouldShareTheResultOfAnIdenticalCallInFlight() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .headersDelay(200, TimeUnit.MILLISECONDS)
+                .body(GSON.toJson(List.of(new GitLabGroup(1L, "foo-group"))))
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        final SingleFlight singleFlight = new SingleFlight();
+        final GitLabClient client = new GitLabClient(gitLabConfiguration, new OkHttpClient(), null, new MembershipCache(Clock.systemUTC(), 10), singleFlight);
+
+        final CompletableFuture<List<GitLabGroupSummary>> first = CompletableFuture.supplyAsync(() -> groupsOf(client));
+        final CompletableFuture<List<GitLabGroupSummary>> second = client.groupsAsync("some-random-token", null);
+        final List<GitLabGroupSummary> third = groupsOf(client);
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).extracting(GitLabGroupSummary::getName).containsExactly("foo-group");
+        assertThat(second.get(5, TimeUnit.SECONDS)).extracting(GitLabGroupSummary::getName).containsExactly("foo-group");
+        assertThat(third).extracting(GitLabGroupSummary::getName).containsExactly("foo-group");
+        assertThat(server.getRequestCount()).isEqualTo(1);
+        assertThat(singleFlight.coalescedCalls()).isEqualTo(2);
+        assertThat(client.coalescedCalls()).isEqualTo(2);
+        assertThat(singleFlight.size()).isZero();
+    }
+
+    @Test
+    public void shouldNotShareCallsMadeWithAnotherToken() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            server.enqueue(new MockResponse.Builder()
+                    .code(200)
+                    .headersDelay(100, TimeUnit.MILLISECONDS)
+                    .body(new GitLabUser("foo", "Foo Bar", "foo@bar.com").toJSON())
+                    .build());
+        }
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        final SingleFlight singleFlight = new SingleFlight();
+        final GitLabClient client = new GitLabClient(gitLabConfiguration, new OkHttpClient(), null, new MembershipCache(Clock.systemUTC(), 10), singleFlight);
+
+        final CompletableFuture<GitLabUser> first = client.userAsync("some-random-token");
+        final CompletableFuture<GitLabUser> second = client.userAsync("some-other-token");
+
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(singleFlight.coalescedCalls()).isZero();
+    }
+
+    @Test
+    public void shouldOnlyCancelASharedCallOnceEveryCallerHasCancelled() throws Exception {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .headersDelay(300, TimeUnit.MILLISECONDS)
+                .body(new MembershipInfo(1L, "foo-user", AccessLevel.DEVELOPER).toJSON())
+                .build());
+
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        final SingleFlight singleFlight = new SingleFlight();
+        final GitLabClient client = new GitLabClient(gitLabConfiguration, new OkHttpClient(), null, new MembershipCache(Clock.systemUTC(), 10), singleFlight);
+
+        final CompletableFuture<MembershipInfo> first = client.groupMembershipInfoAsync("some-random-token", 1L, 1L);
+        final CompletableFuture<MembershipInfo> second = client.groupMembershipInfoAsync("some-random-token", 1L, 1L);
+        first.cancel(true);
+
+        assertThat(second.get(5, TimeUnit.SECONDS).getAccessLevel()).isEqualTo(AccessLevel.DEVELOPER);
+        assertThat(server.getRequestCount()).isEqualTo(1);
+    }
+
+    private List<GitLabGroupSummary> groupsOf(GitLabClient client) {
+        try {
+            return client.groups("some-random-token");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
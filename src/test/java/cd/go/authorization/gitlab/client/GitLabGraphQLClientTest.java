@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import cd.go.authorization.gitlab.client.models.GitLabMemberships;
+import cd.go.authorization.gitlab.client.models.GitLabUser;
+import cd.go.authorization.gitlab.models.GitLabConfiguration;
+import mockwebserver3.MockWebServer;
+import mockwebserver3.junit5.StartStop;
+import mockwebserver3.junit5.internal.StartStopExtension;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static cd.go.authorization.gitlab.client.GitLabGraphQLStub.member;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(StartStopExtension.class)
+public class GitLabGraphQLClientTest {
+    @StartStop
+    private final MockWebServer server = new MockWebServer();
+
+    private GitLabGraphQLStub stub;
+    private GitLabGraphQLClient gitLabGraphQLClient;
+    private GitLabUser gitLabUser;
+
+    @BeforeEach
+    public void setUp() {
+        stub = new GitLabGraphQLStub();
+        server.setDispatcher(stub);
+
+        final GitLabConfiguration gitLabConfiguration = mock(GitLabConfiguration.class);
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        gitLabGraphQLClient = new GitLabGraphQLClient(gitLabConfiguration, new OkHttpClient());
+
+        gitLabUser = mock(GitLabUser.class);
+        when(gitLabUser.getId()).thenReturn(7);
+        when(gitLabUser.getUsername()).thenReturn("bob");
+    }
+
+    @Test
+    public void shouldResolveGroupAndProjectMembershipsInOneQuery() throws Exception {
+        stub.group("acme/platform", member(7, "bob", AccessLevel.DEVELOPER), member(8, "bobby", AccessLevel.OWNER))
+                .group("acme/infra", member(9, "alice", AccessLevel.OWNER))
+                .project("acme/platform/api", member(7, "bob", AccessLevel.MASTER));
+
+        final GitLabMemberships memberships = gitLabGraphQLClient.memberships("some-token", gitLabUser,
+                List.of("acme/platform", "acme/infra", "acme/hidden"), List.of("acme/platform/api"));
+
+        assertThat(memberships.groups()).containsEntry("acme/platform", AccessLevel.DEVELOPER);
+        assertThat(memberships.groups()).containsEntry("acme/infra", null);
+        assertThat(memberships.groups()).doesNotContainKey("acme/hidden");
+        assertThat(memberships.projects()).containsEntry("acme/platform/api", AccessLevel.MASTER);
+        assertThat(stub.queries()).hasSize(1);
+        assertThat(server.takeRequest().getHeaders().get("Authorization")).isEqualTo("Bearer some-token");
+    }
+
+    @Test
+    public void shouldPassPathsAsVariables() throws Exception {
+        stub.group("acme/\") { injected }", member(7, "bob", AccessLevel.OWNER));
+
+        final GitLabMemberships memberships = gitLabGraphQLClient.memberships("some-token", gitLabUser, List.of("acme/\") { injected }"), List.of());
+
+        assertThat(memberships.groups()).containsEntry("acme/\") { injected }", AccessLevel.OWNER);
+        assertThat(stub.queries().get(0).get("query").getAsString()).doesNotContain("injected");
+    }
+
+    @Test
+    public void shouldBatchPathsIntoSeveralQueries() throws Exception {
+        final List<String> groupPaths = new ArrayList<>();
+        for (int i = 0; i < GitLabGraphQLClient.MAX_PATHS_PER_QUERY + 1; i++) {
+            groupPaths.add("acme/group-" + i);
+            stub.group("acme/group-" + i, member(7, "bob", AccessLevel.REPORTER));
+        }
+
+        final GitLabMemberships memberships = gitLabGraphQLClient.memberships("some-token", gitLabUser, groupPaths, List.of());
+
+        assertThat(memberships.groups()).hasSize(groupPaths.size());
+        assertThat(stub.queries()).hasSize(2);
+    }
+
+    @Test
+    public void shouldErrorOutWhenTheQueryFails() {
+        stub.failWith("Field 'groupMembers' doesn't exist on type 'Group'");
+
+        assertThatThrownBy(() -> gitLabGraphQLClient.memberships("some-token", gitLabUser, List.of("acme/platform"), List.of()))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessage("Api call to `/api/graphql` failed with error: `Field 'groupMembers' doesn't exist on type 'Group'`");
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import cd.go.authorization.gitlab.client.models.AccessLevel;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import mockwebserver3.Dispatcher;
+import mockwebserver3.MockResponse;
+import mockwebserver3.RecordedRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal stand-in for the GitLab GraphQL api, answering the aliased `group`/`project` member queries sent by
+ * {@link GitLabGraphQLClient} from the groups, projects and members registered on it.
+ */
+class GitLabGraphQLStub extends Dispatcher {
+    private static final Pattern FIELD_PATTERN = Pattern.compile("(\\w+): (group|project)\\(fullPath: \\$(\\w+)\\) \\{ (\\w+)\\(");
+
+    private final Map<String, List<Member>> groups = new HashMap<>();
+    private final Map<String, List<Member>> projects = new HashMap<>();
+    private final List<JsonObject> queries = new ArrayList<>();
+    private String error;
+
+    GitLabGraphQLStub group(String fullPath, Member... members) {
+        groups.put(fullPath, List.of(members));
+        return this;
+    }
+
+    GitLabGraphQLStub project(String fullPath, Member... members) {
+        projects.put(fullPath, List.of(members));
+        return this;
+    }
+
+    GitLabGraphQLStub failWith(String error) {
+        this.error = error;
+        return this;
+    }
+
+    static Member member(long id, String username, AccessLevel accessLevel) {
+        return new Member(id, username, accessLevel);
+    }
+
+    List<JsonObject> queries() {
+        return queries;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        if (!request.getUrl().encodedPath().equals("/api/graphql") || !"POST".equals(request.getMethod())) {
+            return new MockResponse.Builder().code(404).build();
+        }
+
+        final JsonObject body = JsonParser.parseString(request.getBody().utf8()).getAsJsonObject();
+        queries.add(body);
+
+        final JsonObject result = new JsonObject();
+        if (error != null) {
+            final JsonObject message = new JsonObject();
+            message.addProperty("message", error);
+            final JsonArray errors = new JsonArray();
+            errors.add(message);
+            result.add("errors", errors);
+            return new MockResponse.Builder().code(200).body(result.toString()).build();
+        }
+
+        final JsonObject variables = body.getAsJsonObject("variables");
+        final String search = variables.get("username").getAsString();
+        final JsonObject data = new JsonObject();
+        final Matcher matcher = FIELD_PATTERN.matcher(body.get("query").getAsString());
+        while (matcher.find()) {
+            final String fullPath = variables.get(matcher.group(3)).getAsString();
+            final List<Member> members = (matcher.group(2).equals("group") ? groups : projects).get(fullPath);
+            data.add(matcher.group(1), members == null ? null : entity(matcher.group(4), members, search));
+        }
+        result.add("data", data);
+        return new MockResponse.Builder().code(200).body(result.toString()).build();
+    }
+
+    private JsonObject entity(String membersField, List<Member> members, String search) {
+        final JsonArray nodes = new JsonArray();
+        for (Member member : members) {
+            if (!member.username.contains(search)) {
+                continue;
+            }
+            final JsonObject user = new JsonObject();
+            user.addProperty("id", "gid://gitlab/User/" + member.id);
+            final JsonObject accessLevel = new JsonObject();
+            accessLevel.addProperty("integerValue", member.accessLevel.getValue());
+            final JsonObject node = new JsonObject();
+            node.add("user", user);
+            node.add("accessLevel", accessLevel);
+            nodes.add(node);
+        }
+
+        final JsonObject connection = new JsonObject();
+        connection.add("nodes", nodes);
+        final JsonObject entity = new JsonObject();
+        entity.add(membersField, connection);
+        return entity;
+    }
+
+    static class Member {
+        private final long id;
+        private final String username;
+        private final AccessLevel accessLevel;
+
+        private Member(long id, String username, AccessLevel accessLevel) {
+            this.id = id;
+            this.username = username;
+            this.accessLevel = accessLevel;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import cd.go.authorization.gitlab.client.models.GitLabUser;
+import cd.go.authorization.gitlab.models.GitLabConfiguration;
+import mockwebserver3.MockResponse;
+import mockwebserver3.MockWebServer;
+import mockwebserver3.junit5.StartStop;
+import mockwebserver3.junit5.internal.StartStopExtension;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(StartStopExtension.class)
+public class GitLabHttpClientsTest {
+    private static final int LOGINS = 20;
+
+    @StartStop
+    private final MockWebServer server = new MockWebServer();
+
+    private GitLabHttpClients gitLabHttpClients;
+    private GitLabConfiguration gitLabConfiguration;
+
+    @BeforeEach
+    public void setUp() {
+        gitLabHttpClients = new GitLabHttpClients(new ConnectionPool(4, 1, TimeUnit.MINUTES));
+        gitLabConfiguration = mock(GitLabConfiguration.class);
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+    }
+
+    @Test
+    public void shouldReturnTheSameClientEveryTime() {
+        final OkHttpClient client = gitLabHttpClients.client();
+
+        assertThat(gitLabHttpClients.client()).isSameAs(client);
+        assertThat(client.connectionPool()).isSameAs(gitLabHttpClients.connectionPool());
+    }
+
+    @Test
+    public void shouldKeyCredentialsWithoutTheToken() {
+        assertThat(GitLabHttpClients.credentialsKey("https://gitlab.com", "token-a")).startsWith("https://gitlab.com|").doesNotContain("token-a");
+        assertThat(GitLabHttpClients.credentialsKey("https://gitlab.com", "token-a")).isNotEqualTo(GitLabHttpClients.credentialsKey("https://gitlab.com", "token-b"));
+        assertThat(GitLabHttpClients.credentialsKey("https://gitlab.com", null)).isEqualTo("https://gitlab.com|");
+    }
+
+    @Test
+    public void shouldReuseOneConnectionAcrossLoginsWithSharedClients() throws Exception {
+        for (int i = 0; i < LOGINS; i++) {
+            enqueueUser();
+            final OkHttpClient httpClient = gitLabHttpClients.client();
+            new GitLabClient(gitLabConfiguration, httpClient).user("some-token");
+        }
+
+        assertThat(gitLabHttpClients.connectionPool().connectionCount()).isEqualTo(1);
+    }
+
+    private void enqueueUser() {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body(new GitLabUser("username", "Display Name", "email").toJSON())
+                .build());
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.authorization.gitlab.client;
+
+import mockwebserver3.MockResponse;
+import mockwebserver3.MockWebServer;
+import mockwebserver3.junit5.StartStop;
+import mockwebserver3.junit5.internal.StartStopExtension;
+import cd.go.authorization.gitlab.client.models.GitLabUser;
+import cd.go.authorization.gitlab.models.GitLabConfiguration;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static cd.go.authorization.gitlab.client.RateLimitScheduler.Priority.BACKGROUND;
+import static cd.go.authorization.gitlab.client.RateLimitScheduler.withPriority;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(StartStopExtension.class)
+public class RateLimitSchedulerTest {
+
+    @StartStop
+    private final MockWebServer server = new MockWebServer();
+
+    private MutableClock clock;
+    private List<Long> sleeps;
+    private RateLimitScheduler scheduler;
+    private OkHttpClient httpClient;
+
+    @BeforeEach
+    public void setUp() {
+        clock = new MutableClock();
+        sleeps = new CopyOnWriteArrayList<>();
+        scheduler = new RateLimitScheduler(clock, (task, delay) -> {
+            sleeps.add(delay);
+            clock.advance(Duration.ofMillis(delay));
+            task.run();
+        }, RateLimitScheduler.MAX_BUDGETS);
+        httpClient = new OkHttpClient.Builder().addInterceptor(scheduler).build();
+    }
+
+    @Test
+    public void shouldRetryThrottledCallsAfterTheDelayAskedFor() throws Exception {
+        server.enqueue(new MockResponse.Builder().code(429).addHeader("Retry-After", "2").build());
+        server.enqueue(new MockResponse.Builder().code(200).body("ok").build());
+
+        try (Response response = call("token-a")) {
+            assertThat(response.code()).isEqualTo(200);
+        }
+        assertThat(sleeps).containsExactly(2000L);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRetryThrottledAsynchronousCallsAfterTheDelayAskedFor() throws Exception {
+        server.enqueue(new MockResponse.Builder().code(429).addHeader("Retry-After", "2").build());
+        server.enqueue(new MockResponse.Builder().code(200).body(new GitLabUser("foo", "Foo Bar", "foo@bar.com").toJSON()).build());
+
+        final GitLabConfiguration gitLabConfiguration = mock(GitLabConfiguration.class);
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+        final GitLabClient client = new GitLabClient(gitLabConfiguration, httpClient, null, new MembershipCache(clock, 10), new SingleFlight(), scheduler);
+
+        assertThat(client.userAsync("token-a").get(5, TimeUnit.SECONDS).getUsername()).isEqualTo("foo");
+        assertThat(sleeps).containsExactly(2000L);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldGiveUpOnThrottledCallsWhenTheDelayIsTooLong() throws Exception {
+        server.enqueue(new MockResponse.Builder().code(429).addHeader("Retry-After", "3600").build());
+
+        try (Response response = call("token-a")) {
+            assertThat(response.code()).isEqualTo(429);
+        }
+        assertThat(sleeps).isEmpty();
+        assertThat(server.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldMakeOtherCallsWithTheSameTokenWaitWhileThrottled() throws Exception {
+        server.enqueue(new MockResponse.Builder().code(429).addHeader("Retry-After", "3600").build());
+        server.enqueue(new MockResponse.Builder().code(200).body("ok").build());
+        server.enqueue(new MockResponse.Builder().code(200).body("ok").build());
+        call("token-a").close();
+
+        // a different token has its own limit
+        try (Response response = call("token-b")) {
+            assertThat(response.code()).isEqualTo(200);
+        }
+        assertThat(sleeps).isEmpty();
+
+        try (Response response = call("token-a")) {
+            assertThat(response.code()).isEqualTo(200);
+        }
+        assertThat(sleeps.stream().mapToLong(Long::longValue).sum()).isEqualTo(RateLimitScheduler.MAX_INTERACTIVE_WAIT.toMillis());
+    }
+
+    @Test
+    public void shouldSpreadCallsOverTheWindowWhenFewAreLeft() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(rateLimited(100, 10, Duration.ofSeconds(10)));
+        }
+
+        call("token-a").close();
+        call("token-a").close();
+        assertThat(sleeps).isEmpty();
+
+        call("token-a").close();
+        assertThat(sleeps).containsExactly(1000L);
+    }
+
+    @Test
+    public void shouldNotPaceCallsWhileManyAreLeft() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(rateLimited(100, 50, Duration.ofSeconds(10)));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            call("token-a").close();
+        }
+        assertThat(sleeps).isEmpty();
+    }
+
+    @Test
+    public void shouldLeaveTheEndOfTheWindowToInteractiveCalls() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(rateLimited(100, 5, Duration.ofSeconds(30)));
+        }
+        call("token-a").close();
+
+        call("token-a").close();
+        assertThat(sleeps).isEmpty();
+
+        withPriority(BACKGROUND, () -> {
+            call("token-a").close();
+            return null;
+        }).call();
+        assertThat(sleeps).containsExactly(30_000L);
+    }
+
+    @Test
+    public void shouldOnlyKeepTheBudgetsOfTheLastUsedTokens() throws Exception {
+        scheduler = new RateLimitScheduler(clock, (task, delay) -> task.run(), 2);
+        httpClient = new OkHttpClient.Builder().addInterceptor(scheduler).build();
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(rateLimited(100, 50, Duration.ofSeconds(10)));
+            call("token-" + i).close();
+        }
+
+        assertThat(scheduler.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldKeyBudgetsByServerAndTokenWithoutTheToken() {
+        final Request request = new Request.Builder().url("https://gitlab.example.com/api/v4/groups?page=2").header("Private-Token", "secret-token").build();
+        final Request otherPath = new Request.Builder().url("https://gitlab.example.com/api/v4/projects").header("Private-Token", "secret-token").build();
+
+        assertThat(RateLimitScheduler.budgetKey(request)).isEqualTo(RateLimitScheduler.budgetKey(otherPath)).doesNotContain("secret-token");
+    }
+
+    private MockResponse rateLimited(int limit, int remaining, Duration resetIn) {
+        return new MockResponse.Builder()
+                .code(200)
+                .addHeader("RateLimit-Limit", String.valueOf(limit))
+                .addHeader("RateLimit-Remaining", String.valueOf(remaining))
+                .addHeader("RateLimit-Reset", String.valueOf(clock.instant().plus(resetIn).getEpochSecond()))
+                .body("ok")
+                .build();
+    }
+
+    private Response call(String token) throws IOException {
+        final Request request = new Request.Builder().url(server.url("/api/v4/groups")).header("Private-Token", token).build();
+        return scheduler.execute(httpClient, request);
+    }
+
+    private static class MutableClock extends Clock {
+        private volatile Instant now = Instant.parse("2022-01-01T00:00:00Z");
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SingleFlightTest {
+
+    @Test
+    void shouldCountEveryCallerWaitingForACallInFlightUntilItHasTheResult() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight();
+        final CompletableFuture<String> call = new CompletableFuture<>();
+
+        final CompletableFuture<String> leader = singleFlight.executeAsync("key", () -> call, () -> {});
+        final CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> {
+            try {
+                return singleFlight.execute("key", () -> "not made", () -> {});
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        awaitWaiters(singleFlight, 2);
+
+        leader.cancel(true);
+        assertThat(singleFlight.waiters("key")).isEqualTo(1);
+        assertThat(call).isNotCancelled();
+
+        call.complete("result");
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+        assertThat(singleFlight.coalescedCalls()).isEqualTo(1);
+        assertThat(singleFlight.size()).isZero();
+    }
+
+    @Test
+    void shouldCancelTheCallOnceTheLastWaitingCallerGivesUp() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight();
+        final CompletableFuture<String> call = new CompletableFuture<>();
+
+        final CompletableFuture<String> leader = singleFlight.executeAsync("key", () -> call, () -> {});
+        final Thread follower = new Thread(() -> {
+            try {
+                singleFlight.execute("key", () -> "not made", () -> {});
+            } catch (Exception ignored) {
+                // interrupted while waiting
+            }
+        });
+        follower.start();
+        awaitWaiters(singleFlight, 2);
+
+        follower.interrupt();
+        follower.join(5000);
+        assertThat(singleFlight.waiters("key")).isEqualTo(1);
+        assertThat(call).isNotCancelled();
+
+        leader.cancel(true);
+        assertThat(call).isCancelled();
+        assertThat(singleFlight.size()).isZero();
+    }
+
+    private static void awaitWaiters(SingleFlight singleFlight, int waiters) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.waiters("key") != waiters && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(singleFlight.waiters("key")).isEqualTo(waiters);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static cd.go.authorization.gitlab.client.models.GitLabProjectTest.projectsPage;
+import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GitLabProjectSummaryTest {
+
+    @Test
+    public void shouldReadOnlyIdNameAndPathFromProject() throws Exception {
+        final List<GitLabProjectSummary> projects = GitLabProjectSummary.fromJSONArray(new StringReader(new String(projectsPage(2), StandardCharsets.UTF_8)));
+
+        assertThat(projects).hasSize(2);
+        assertThat(projects.get(1).getId()).isEqualTo(2L);
+        assertThat(projects.get(1).getName()).isEqualTo("project-2");
+        assertThat(projects.get(1).getFullPath()).isEqualTo("group/project-2");
+    }
+
+    @Test
+    public void shouldSkipUnknownAndNullAttributes() throws Exception {
+        final String json = "[{\"id\": 7, \"description\": null, \"name\": \"foo\", \"permissions\": {\"project_access\": null}, \"path_with_namespace\": null}]";
+
+        final List<GitLabProjectSummary> projects = GitLabProjectSummary.fromJSONArray(new StringReader(json));
+
+        assertThat(projects).hasSize(1);
+        assertThat(projects.get(0).getId()).isEqualTo(7L);
+        assertThat(projects.get(0).getName()).isEqualTo("foo");
+        assertThat(projects.get(0).getFullPath()).isNull();
+    }
+
+    @Test
+    public void shouldSerializeToJSON() {
+        assertThat(GSON.toJson(new GitLabProjectSummary(1L, "foo", "group/foo")))
+                .isEqualTo("{\"id\":1,\"name\":\"foo\",\"path_with_namespace\":\"group/foo\"}");
+    }
+
+    @Test
+    public void shouldReadDirectProjectAccessFromPermissions() throws Exception {
+        final String json = "[" +
+                "{\"id\": 1, \"name\": \"foo\", \"permissions\": {\"project_access\": {\"access_level\": 30, \"notification_level\": 3}, \"group_access\": {\"access_level\": 50}}}," +
+                "{\"id\": 2, \"name\": \"bar\", \"permissions\": {\"project_access\": null, \"group_access\": {\"access_level\": 50}}}," +
+                "{\"id\": 3, \"name\": \"baz\"}" +
+                "]";
+
+        final List<GitLabProjectSummary> projects = GitLabProjectSummary.fromJSONArray(new StringReader(json));
+
+        assertThat(projects.get(0).hasPermissions()).isTrue();
+        assertThat(projects.get(0).getProjectAccessLevel()).isEqualTo(AccessLevel.DEVELOPER);
+        assertThat(projects.get(1).hasPermissions()).isTrue();
+        assertThat(projects.get(1).getProjectAccessLevel()).isNull();
+        assertThat(projects.get(2).hasPermissions()).isFalse();
+    }
+}
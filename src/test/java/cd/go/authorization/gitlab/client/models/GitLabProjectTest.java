@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.client.models;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GitLabProjectTest {
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final int PAGE_SIZE = 100;
+
+    @Test
+    public void shouldDecodeProjectsFromStream() throws Exception {
+        final List<GitLabProject> projects = GitLabProject.fromJSONArray(ResponseBody.create(projectsPage(3), JSON).charStream());
+
+        assertThat(projects).extracting(GitLabProject::getId).containsExactly(1L, 2L, 3L);
+        assertThat(projects).extracting(GitLabProject::getName).containsExactly("project-1", "project-2", "project-3");
+        assertThat(projects.get(0).getNamespace()).isNotNull();
+    }
+
+    @Test
+    public void shouldDecodeSameProjectsFromStreamAndString() throws Exception {
+        final byte[] page = projectsPage(PAGE_SIZE);
+
+        final List<GitLabProject> fromString = GitLabProject.fromJSONArray(new String(page, StandardCharsets.UTF_8));
+        final List<GitLabProject> fromStream = GitLabProject.fromJSONArray(ResponseBody.create(page, JSON).charStream());
+
+        assertThat(fromStream).usingRecursiveFieldByFieldElementComparator().isEqualTo(fromString);
+    }
+
+    public static byte[] projectsPage(int size) {
+        final StringBuilder json = new StringBuilder("[");
+        for (int id = 1; id <= size; id++) {
+            if (id > 1) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(id)
+                    .append(",\"description\":\"Description of project ").append(id).append(" which is reasonably long, like real descriptions are.\"")
+                    .append(",\"default_branch\":\"main\",\"visibility\":\"internal\"")
+                    .append(",\"ssh_url_to_repo\":\"git@gitlab.example.com:group/project-").append(id).append(".git\"")
+                    .append(",\"http_url_to_repo\":\"https://gitlab.example.com/group/project-").append(id).append(".git\"")
+                    .append(",\"web_url\":\"https://gitlab.example.com/group/project-").append(id).append("\"")
+                    .append(",\"tag_list\":[\"java\",\"gocd\"]")
+                    .append(",\"owner\":{\"id\":3,\"name\":\"Owner\",\"created_at\":\"2013-09-30T13:46:02Z\"}")
+                    .append(",\"name\":\"project-").append(id).append("\"")
+                    .append(",\"name_with_namespace\":\"Group / project-").append(id).append("\"")
+                    .append(",\"path\":\"project-").append(id).append("\"")
+                    .append(",\"path_with_namespace\":\"group/project-").append(id).append("\"")
+                    .append(",\"issues_enabled\":true,\"open_issues_count\":1,\"merge_requests_enabled\":true,\"jobs_enabled\":true")
+                    .append(",\"wiki_enabled\":true,\"snippets_enabled\":false,\"container_registry_enabled\":false")
+                    .append(",\"created_at\":\"2013-09-30T13:46:02Z\",\"last_activity_at\":\"2013-09-30T13:46:02Z\",\"creator_id\":3")
+                    .append(",\"namespace\":{\"id\":3,\"name\":\"Group\",\"path\":\"group\",\"kind\":\"group\",\"full_path\":\"group\"}")
+                    .append(",\"archived\":false,\"shared_runners_enabled\":true,\"forks_count\":0,\"star_count\":0")
+                    .append(",\"runners_token\":\"b8547b1dc37721d05889db52fa2f02\",\"public_jobs\":true")
+                    .append(",\"shared_with_groups\":[],\"request_access_enabled\":false")
+                    .append(",\"statistics\":{\"commit_count\":37,\"storage_size\":1038090,\"repository_size\":1038090,\"lfs_objects_size\":0,\"job_artifacts_size\":0}")
+                    .append(",\"_links\":{\"self\":\"https://gitlab.example.com/api/v4/projects/").append(id).append("\"")
+                    .append(",\"issues\":\"https://gitlab.example.com/api/v4/projects/").append(id).append("/issues\"")
+                    .append(",\"merge_requests\":\"https://gitlab.example.com/api/v4/projects/").append(id).append("/merge_requests\"")
+                    .append(",\"repo_branches\":\"https://gitlab.example.com/api/v4/projects/").append(id).append("/repository/branches\"")
+                    .append(",\"members\":\"https://gitlab.example.com/api/v4/projects/").append(id).append("/members\"}")
+                    .append('}');
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -79,4 +79,51 @@ public class AuthConfigValidateRequestExecutorTest {
 
         JSONAssert.assertEquals(expectedJSON, response.responseBody(), JSONCompareMode.NON_EXTENSIBLE);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldValidatePageSize() throws Exception {
+        when(request.requestBody()).thenReturn("{\n" +
+                "  \"ApplicationId\": \"client-id\",\n" +
+                "  \"AuthenticateWith\": \"GitLab\",\n" +
+                "  \"ClientSecret\": \"client-secret\",\n" +
+                "  \"PageSize\": \"500\"" +
+                "}");
+
+        GoPluginApiResponse response = AuthConfigValidateRequest.from(request).execute();
+
+        String expectedJSON = "[\n" +
+                "  {\n" +
+                "    \"key\": \"PageSize\",\n" +
+                "    \"message\": \"PageSize must be a number between 1 and 100.\"\n" +
+                "  }\n" +
+                "]";
+
+        JSONAssert.assertEquals(expectedJSON, response.responseBody(), JSONCompareMode.NON_EXTENSIBLE);
+    }
+
+    @Test
+    public void shouldValidateRolesCacheSettings() throws Exception {
+        when(request.requestBody()).thenReturn("{\n" +
+                "  \"ApplicationId\": \"client-id\",\n" +
+                "  \"AuthenticateWith\": \"GitLab\",\n" +
+                "  \"ClientSecret\": \"client-secret\",\n" +
+                "  \"RolesCacheTTLInSeconds\": \"five minutes\",\n" +
+                "  \"RolesCacheMaxSize\": \"-1\"" +
+                "}");
+
+        GoPluginApiResponse response = AuthConfigValidateRequest.from(request).execute();
+
+        String expectedJSON = "[\n" +
+                "  {\n" +
+                "    \"key\": \"RolesCacheTTLInSeconds\",\n" +
+                "    \"message\": \"RolesCacheTTLInSeconds must be a number of seconds, 0 to disable caching.\"\n" +
+                "  },\n" +
+                "  {\n" +
+                "    \"key\": \"RolesCacheMaxSize\",\n" +
+                "    \"message\": \"RolesCacheMaxSize must be a positive number.\"\n" +
+                "  }\n" +
+                "]";
+
+        JSONAssert.assertEquals(expectedJSON, response.responseBody(), JSONCompareMode.NON_EXTENSIBLE);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authorization.gitlab.models;
+
+import cd.go.authorization.gitlab.client.GitLabClient;
+import cd.go.authorization.gitlab.client.GitLabHttpClients;
+import cd.go.authorization.gitlab.client.models.GitLabProject;
+import cd.go.authorization.gitlab.client.models.GitLabProjectSummary;
+import cd.go.authorization.gitlab.client.models.GitLabUser;
+import mockwebserver3.MockResponse;
+import mockwebserver3.MockWebServer;
+import mockwebserver3.junit5.StartStop;
+import mockwebserver3.junit5.internal.StartStopExtension;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static cd.go.authorization.gitlab.client.models.GitLabProjectTest.projectsPage;
+import static cd.go.authorization.gitlab.utils.Util.GSON;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Allocations and throughput of the authorization hot paths, compared with what they replaced. Not part of the build;
+ * run with `./gradlew benchmark` and read the numbers from the output.
+ */
+@Tag("benchmark")
+@ExtendWith(StartStopExtension.class)
+public class AllocationBenchmark {
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final int ITERATIONS = 200;
+    private static final int PAGE_SIZE = 100;
+    private static final int ROLES = 500;
+    private static final int LOGINS = 20;
+
+    @StartStop
+    private final MockWebServer server = new MockWebServer();
+
+    @Test
+    public void decodingProjectsFromStream() throws Exception {
+        final byte[] page = projectsPage(PAGE_SIZE);
+
+        compare("decoding a " + PAGE_SIZE + "-project page", "whole page as string", "streaming", streaming -> {
+            final ResponseBody body = ResponseBody.create(page, JSON);
+            return streaming ? GitLabProject.fromJSONArray(body.charStream()).size() : GitLabProject.fromJSONArray(body.string()).size();
+        });
+    }
+
+    @Test
+    public void decodingProjectSummaries() throws Exception {
+        final String page = new String(projectsPage(PAGE_SIZE), StandardCharsets.UTF_8);
+
+        compare("decoding a " + PAGE_SIZE + "-project page", "full models", "summaries", summaries -> summaries
+                ? GitLabProjectSummary.fromJSONArray(new StringReader(page)).size()
+                : GitLabProject.fromJSONArray(new StringReader(page)).size());
+    }
+
+    @Test
+    public void resolvingCompiledRoleConfigurations() throws Exception {
+        final List<Map<String, String>> roles = roleConfigurations();
+        final List<GitLabRoleConfiguration> configurations = new ArrayList<>();
+        for (Map<String, String> role : roles) {
+            configurations.add(GitLabRoleConfiguration.fromJSON(GSON.toJson(role)));
+        }
+
+        compare("resolving " + ROLES + " roles", "parsing on every access", "compiled", compiled -> {
+            long matches = 0;
+            for (int index = 0; index < roles.size(); index++) {
+                final Map<String, String> role = roles.get(index);
+                final CompiledRoleConfiguration configuration = compiled ? configurations.get(index).compiled()
+                        : new CompiledRoleConfiguration(role.get("Groups"), role.get("Projects"), role.get("Users"));
+                if (configuration.users().contains("user-7") || configuration.groups().getOrDefault("group-7", List.of()).contains("developer")) {
+                    matches++;
+                }
+            }
+            return matches;
+        });
+    }
+
+    @Test
+    public void connectionsOpenedByLogins() throws Exception {
+        final GitLabConfiguration gitLabConfiguration = mock(GitLabConfiguration.class);
+        when(gitLabConfiguration.gitLabBaseURL()).thenReturn(server.url("/").toString());
+
+        int connectionsOpened = 0;
+        for (int i = 0; i < LOGINS; i++) {
+            enqueueUser();
+            final OkHttpClient httpClient = new OkHttpClient();
+            new GitLabClient(gitLabConfiguration, httpClient).user("some-token");
+            connectionsOpened += httpClient.connectionPool().connectionCount();
+        }
+        final int before = GitLabHttpClients.instance().connectionPool().connectionCount();
+        for (int i = 0; i < LOGINS; i++) {
+            enqueueUser();
+            new GitLabClient(gitLabConfiguration, GitLabHttpClients.instance().client()).user("some-token");
+        }
+
+        System.out.printf("connections opened by %s logins: client per login=%s, shared client=%s%n",
+                LOGINS, connectionsOpened, GitLabHttpClients.instance().connectionPool().connectionCount() - before);
+    }
+
+    private interface Workload {
+        long run(boolean optimized) throws Exception;
+    }
+
+    private static void compare(String name, String baselineName, String optimizedName, Workload workload) throws Exception {
+        // warm up both paths
+        measure(workload, false);
+        measure(workload, true);
+
+        final Measurement baseline = measure(workload, false);
+        final Measurement optimized = measure(workload, true);
+        if (baseline.result != optimized.result) {
+            throw new AssertionError(name + ": " + baselineName + " and " + optimizedName + " disagree");
+        }
+        System.out.printf("bytes allocated %s: %s=%s (%s/s), %s=%s (%s/s)%n", name,
+                baselineName, baseline.allocatedBytesPerIteration, baseline.iterationsPerSecond(),
+                optimizedName, optimized.allocatedBytesPerIteration, optimized.iterationsPerSecond());
+    }
+
+    private static Measurement measure(Workload workload, boolean optimized) throws Exception {
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long result = 0;
+
+        final long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            result += workload.run(optimized);
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+        final long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        return new Measurement(allocated / ITERATIONS, elapsedNanos, result);
+    }
+
+    private static List<Map<String, String>> roleConfigurations() {
+        final List<Map<String, String>> roles = new ArrayList<>();
+        for (int id = 1; id <= ROLES; id++) {
+            roles.add(Map.of(
+                    "Groups", "group-" + id + ": developer, owner\ngroup-" + (id + 1) + "\nacme/platform-" + id + ": reporter",
+                    "Projects", "project-" + id + ": maintainer\nacme/project-" + id,
+                    "Users", "user-" + id + ", user-" + (id * 7)));
+        }
+        return roles;
+    }
+
+    private void enqueueUser() {
+        server.enqueue(new MockResponse.Builder()
+                .code(200)
+                .body(new GitLabUser("username", "Display Name", "email").toJSON())
+                .build());
+    }
+
+    private static class Measurement {
+        private final long allocatedBytesPerIteration;
+        private final long elapsedNanos;
+        private final long result;
+
+        private Measurement(long allocatedBytesPerIteration, long elapsedNanos, long result) {
+            this.allocatedBytesPerIteration = allocatedBytesPerIteration;
+            this.elapsedNanos = elapsedNanos;
+            this.result = result;
+        }
+
+        private long iterationsPerSecond() {
+            return ITERATIONS * 1_000_000_000L / Math.max(1, elapsedNanos);
+        }
+    }
+}
@@ -87,8 +87,56 @@ public class GitLabConfigurationTest {
         assertThat(configFor("hello, world").clientScopesRequested()).containsExactly("hello", "world");
     }
 
+    @Test
+    public void shouldDefaultPageSizeWhenNotSpecified() {
+        assertThat(GitLabConfiguration.fromJSON("{}").pageSize()).isEqualTo(100);
+        assertThat(GitLabConfiguration.fromJSON("{\"PageSize\": \"50\"}").pageSize()).isEqualTo(50);
+        assertThat(GitLabConfiguration.fromJSON("{\"PageSize\": \"fifty\"}").isValidPageSize()).isFalse();
+    }
+
     private static GitLabConfiguration configFor(String scopes) {
         return new GitLabConfiguration("client-id", "client-secret",
                 scopes, AuthenticateWith.GITLAB_ENTERPRISE, "http://enterprise.url", "some-random-token");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldNotCacheRolesUnlessTTLIsSpecified() {
+        assertThat(GitLabConfiguration.fromJSON("{}").rolesCacheTTLInSeconds()).isEqualTo(0);
+        assertThat(GitLabConfiguration.fromJSON("{}").rolesCacheMaxSize()).isEqualTo(10_000);
+        assertThat(GitLabConfiguration.fromJSON("{\"RolesCacheTTLInSeconds\": \"300\", \"RolesCacheMaxSize\": \"50\"}").rolesCacheTTLInSeconds()).isEqualTo(300);
+        assertThat(GitLabConfiguration.fromJSON("{\"RolesCacheTTLInSeconds\": \"300\", \"RolesCacheMaxSize\": \"50\"}").rolesCacheMaxSize()).isEqualTo(50);
+        assertThat(GitLabConfiguration.fromJSON("{\"RolesCacheTTLInSeconds\": \"-1\"}").isValidRolesCacheTTLInSeconds()).isFalse();
+        assertThat(GitLabConfiguration.fromJSON("{\"RolesCacheMaxSize\": \"0\"}").isValidRolesCacheMaxSize()).isFalse();
+    }
+
+    @Test
+    public void shouldRequireRefreshTimeToBeLessThanTTL() {
+        assertThat(GitLabConfiguration.fromJSON("{}").rolesCacheRefreshAfterSeconds()).isEqualTo(0);
+        assertThat(GitLabConfiguration.fromJSON("{\"RolesCacheTTLInSeconds\": \"300\", \"RolesCacheRefreshAfterSeconds\": \"60\"}").isValidRolesCacheRefreshAfterSeconds()).isTrue();
+        assertThat(GitLabConfiguration.fromJSON("{\"RolesCacheTTLInSeconds\": \"300\", \"RolesCacheRefreshAfterSeconds\": \"300\"}").isValidRolesCacheRefreshAfterSeconds()).isFalse();
+        assertThat(GitLabConfiguration.fromJSON("{\"RolesCacheRefreshAfterSeconds\": \"0\"}").isValidRolesCacheRefreshAfterSeconds()).isTrue();
+    }
+
+    @Test
+    public void shouldRequireMemberIndexSyncIntervalToBeLessThanRefreshInterval() {
+        assertThat(GitLabConfiguration.fromJSON("{}").memberIndexSyncIntervalInSeconds()).isEqualTo(0);
+        assertThat(GitLabConfiguration.fromJSON("{\"MemberIndexRefreshIntervalInSeconds\": \"3600\", \"MemberIndexSyncIntervalInSeconds\": \"30\"}").isValidMemberIndexSyncIntervalInSeconds()).isTrue();
+        assertThat(GitLabConfiguration.fromJSON("{\"MemberIndexSyncIntervalInSeconds\": \"30\"}").isValidMemberIndexSyncIntervalInSeconds()).isFalse();
+    }
+
+    @Test
+    public void shouldRequireNonMembershipsToBeCachedForLessTimeThanMemberships() {
+        assertThat(GitLabConfiguration.fromJSON("{\"NonMembershipCacheTTLInSeconds\": \"60\"}").isValidNonMembershipCacheTTLInSeconds()).isTrue();
+        assertThat(GitLabConfiguration.fromJSON("{\"MembershipCacheTTLInSeconds\": \"600\", \"NonMembershipCacheTTLInSeconds\": \"60\"}").isValidNonMembershipCacheTTLInSeconds()).isTrue();
+        assertThat(GitLabConfiguration.fromJSON("{\"MembershipCacheTTLInSeconds\": \"60\", \"NonMembershipCacheTTLInSeconds\": \"600\"}").isValidNonMembershipCacheTTLInSeconds()).isFalse();
+    }
+
+    @Test
+    public void shouldMakeMemberLookupsOneByOneUnlessConfigured() {
+        assertThat(GitLabConfiguration.fromJSON("{}").concurrentMemberLookups()).isEqualTo(1);
+        assertThat(GitLabConfiguration.fromJSON("{\"ConcurrentMemberLookups\": \"8\"}").concurrentMemberLookups()).isEqualTo(8);
+        assertThat(GitLabConfiguration.fromJSON("{\"ConcurrentMemberLookups\": \"8\"}").isValidConcurrentMemberLookups()).isTrue();
+        assertThat(GitLabConfiguration.fromJSON("{\"ConcurrentMemberLookups\": \"0\"}").isValidConcurrentMemberLookups()).isFalse();
+        assertThat(GitLabConfiguration.fromJSON("{\"ConcurrentMemberLookups\": \"100\"}").isValidConcurrentMemberLookups()).isFalse();
+    }
+}
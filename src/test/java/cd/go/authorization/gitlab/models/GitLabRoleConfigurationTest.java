@@ -16,9 +16,11 @@
 
 package cd.go.authorization.gitlab.models;
 
+import cd.go.authorization.gitlab.client.models.AccessLevel;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -33,4 +35,50 @@ public class GitLabRoleConfigurationTest {
 
         assertThat(gitLabRoleConfiguration.groups()).containsEntry("group-1", List.of("guest", "owner"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldCompileGroupsProjectsAndUsers() {
+        final GitLabRoleConfiguration gitLabRoleConfiguration = GitLabRoleConfiguration.fromJSON("{\n" +
+                "  \"Groups\": \"group-1: Guest, OWNER\\ngroup-2\",\n" +
+                "  \"Projects\": \"project-1:developer, unknown\",\n" +
+                "  \"Users\": \"bob, alice\"" +
+                "}");
+
+        final CompiledRoleConfiguration compiled = gitLabRoleConfiguration.compiled();
+
+        assertThat(compiled.users()).containsExactlyInAnyOrder("bob", "alice");
+        assertThat(compiled.groups()).containsEntry("group-1", List.of("guest", "owner")).containsEntry("group-2", List.of());
+        assertThat(compiled.groupAccessLevels()).containsEntry("group-1", Set.of(AccessLevel.GUEST, AccessLevel.OWNER)).containsEntry("group-2", Set.of());
+        assertThat(compiled.projects()).containsEntry("project-1", List.of("developer", "unknown"));
+        assertThat(compiled.projectAccessLevels()).containsEntry("project-1", Set.of(AccessLevel.DEVELOPER));
+    }
+
+    @Test
+    public void shouldExpandMinimumAccessLevels() {
+        final GitLabRoleConfiguration gitLabRoleConfiguration = GitLabRoleConfiguration.fromJSON("{\"Groups\": \"group-1: Developer+\\ngroup-2: guest, master +\"}");
+
+        assertThat(gitLabRoleConfiguration.compiled().groupAccessLevels())
+                .containsEntry("group-1", Set.of(AccessLevel.DEVELOPER, AccessLevel.MASTER, AccessLevel.OWNER))
+                .containsEntry("group-2", Set.of(AccessLevel.GUEST, AccessLevel.MASTER, AccessLevel.OWNER));
+    }
+
+    @Test
+    public void shouldShareCompiledFormBetweenConfigurationsWithSameContent() {
+        final String json = "{\"Groups\": \"group-shared: developer\", \"Users\": \"bob\"}";
+
+        final GitLabRoleConfiguration first = GitLabRoleConfiguration.fromJSON(json);
+        final GitLabRoleConfiguration second = GitLabRoleConfiguration.fromJSON(json);
+        final GitLabRoleConfiguration other = GitLabRoleConfiguration.fromJSON("{\"Groups\": \"group-shared: owner\", \"Users\": \"bob\"}");
+
+        assertThat(second.compiled()).isSameAs(first.compiled());
+        assertThat(other.compiled()).isNotSameAs(first.compiled());
+        assertThat(first.fingerprint()).isEqualTo(second.fingerprint()).isNotEqualTo(other.fingerprint());
+    }
+
+    @Test
+    public void shouldNotMistakeMissingValuesForEmptyOnesInFingerprint() {
+        assertThat(GitLabRoleConfiguration.fromJSON("{\"Groups\": \"\"}").fingerprint())
+                .isNotEqualTo(GitLabRoleConfiguration.fromJSON("{}").fingerprint())
+                .isNotEqualTo(GitLabRoleConfiguration.fromJSON("{\"Users\": \"\"}").fingerprint());
+    }
+}